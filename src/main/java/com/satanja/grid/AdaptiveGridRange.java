@@ -0,0 +1,242 @@
+package com.satanja.grid;
+
+import com.satanja.rangetree.IdConsumer;
+import com.satanja.rangetree.IdIndex;
+import com.satanja.rangetree.Point;
+import com.satanja.rangetree.PointConsumer;
+import com.satanja.rangetree.PointSet;
+import com.satanja.rangetree.SpatialIndex;
+import com.satanja.rangetree.Window;
+
+import java.util.List;
+
+/**
+ * Multi-resolution grid: a cell holding more than {@code threshold} points is split into a finer grid of its own, so
+ * dense regions get small cells and sparse regions stay coarse. Every cell stores its points contiguously, and a cell
+ * whose bounding box lies inside the window is reported as a whole.
+ */
+public class AdaptiveGridRange implements SpatialIndex, IdIndex {
+
+    public static final int DEFAULT_THRESHOLD = 2 * GridTuning.TARGET_CELL_SIZE;
+
+    // a split cell never gets more than MAX_FANOUT cells along an axis
+    private static final int MAX_FANOUT = 64;
+
+    private final PointSet pointSet;
+
+    // coordinates and ids ordered so that every cell occupies a contiguous range
+    private final double[] xs;
+    private final double[] ys;
+    private final int[] ids;
+
+    private final GridCell root;
+
+    public AdaptiveGridRange(final List<Point> points) {
+        this(PointSet.of(points), DEFAULT_THRESHOLD);
+    }
+
+    public AdaptiveGridRange(final PointSet pointSet) {
+        this(pointSet, DEFAULT_THRESHOLD);
+    }
+
+    public AdaptiveGridRange(final PointSet pointSet, final int threshold) {
+        if (threshold < 1) {
+            throw new IllegalArgumentException("Expected a positive threshold but got " + threshold);
+        }
+
+        this.pointSet = pointSet;
+        final int size = pointSet.size();
+        this.ids = new int[size];
+        for (int id = 0; id < size; id++) {
+            ids[id] = id;
+        }
+
+        this.root = size == 0 ? null : construct(0, size, threshold, new int[size], new int[size]);
+
+        this.xs = new double[size];
+        this.ys = new double[size];
+        for (int k = 0; k < size; k++) {
+            xs[k] = pointSet.getX(ids[k]);
+            ys[k] = pointSet.getY(ids[k]);
+        }
+    }
+
+    @Override
+    public void search(final Window window, final PointConsumer consumer) {
+        searchIds(window, id -> consumer.accept(pointSet.get(id)));
+    }
+
+    @Override
+    public void searchIds(final Window window, final IdConsumer consumer) {
+        if (root != null) {
+            search(root, window, consumer);
+        }
+    }
+
+    @Override
+    public int count(final Window window) {
+        return root == null ? 0 : count(root, window);
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    private void search(final GridCell cell, final Window window, final IdConsumer consumer) {
+        if (cell.isDisjoint(window)) {
+            return;
+        }
+
+        if (cell.isCoveredBy(window)) {
+            for (int k = cell.start; k < cell.end; k++) {
+                consumer.accept(ids[k]);
+            }
+        } else if (cell.children == null) {
+            for (int k = cell.start; k < cell.end; k++) {
+                if (contains(window, k)) {
+                    consumer.accept(ids[k]);
+                }
+            }
+        } else {
+            final int lastI = cell.cellI(window.getXMax());
+            final int lastJ = cell.cellJ(window.getYMax());
+            for (int i = cell.cellI(window.getXMin()); i <= lastI; i++) {
+                for (int j = cell.cellJ(window.getYMin()); j <= lastJ; j++) {
+                    final GridCell child = cell.children[i * cell.fanout + j];
+                    if (child != null) {
+                        search(child, window, consumer);
+                    }
+                }
+            }
+        }
+    }
+
+    private int count(final GridCell cell, final Window window) {
+        if (cell.isDisjoint(window)) {
+            return 0;
+        }
+
+        int count = 0;
+        if (cell.isCoveredBy(window)) {
+            count = cell.end - cell.start;
+        } else if (cell.children == null) {
+            for (int k = cell.start; k < cell.end; k++) {
+                if (contains(window, k)) {
+                    count++;
+                }
+            }
+        } else {
+            final int lastI = cell.cellI(window.getXMax());
+            final int lastJ = cell.cellJ(window.getYMax());
+            for (int i = cell.cellI(window.getXMin()); i <= lastI; i++) {
+                for (int j = cell.cellJ(window.getYMin()); j <= lastJ; j++) {
+                    final GridCell child = cell.children[i * cell.fanout + j];
+                    if (child != null) {
+                        count += count(child, window);
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    private boolean contains(final Window window, final int k) {
+        return window.getXMin() <= xs[k] && xs[k] <= window.getXMax() && window.getYMin() <= ys[k] && ys[k] <= window.getYMax();
+    }
+
+    // ids[start, end) are the points of the cell, they are reordered so that every child is contiguous
+    private GridCell construct(final int start, final int end, final int threshold, final int[] cells, final int[] buffer) {
+        double minX = pointSet.getX(ids[start]);
+        double maxX = minX;
+        double minY = pointSet.getY(ids[start]);
+        double maxY = minY;
+        for (int k = start + 1; k < end; k++) {
+            minX = Math.min(minX, pointSet.getX(ids[k]));
+            maxX = Math.max(maxX, pointSet.getX(ids[k]));
+            minY = Math.min(minY, pointSet.getY(ids[k]));
+            maxY = Math.max(maxY, pointSet.getY(ids[k]));
+        }
+
+        final GridCell cell = new GridCell(start, end, minX, maxX, minY, maxY);
+        final int size = end - start;
+        if (size <= threshold || (minX == maxX && minY == maxY)) {
+            return cell;
+        }
+
+        // the minimum and maximum of a non-degenerate axis land in different children, so every split makes progress
+        final int fanout = (int) Math.min(MAX_FANOUT, Math.max(2, Math.ceil(Math.sqrt((double) size / threshold))));
+        cell.split(fanout);
+
+        final int[] offsets = new int[fanout * fanout + 1];
+        for (int k = start; k < end; k++) {
+            cells[k] = cell.cellI(pointSet.getX(ids[k])) * fanout + cell.cellJ(pointSet.getY(ids[k]));
+            offsets[cells[k] + 1]++;
+        }
+        for (int child = 0; child < fanout * fanout; child++) {
+            offsets[child + 1] += offsets[child];
+        }
+
+        final int[] next = new int[fanout * fanout];
+        System.arraycopy(offsets, 0, next, 0, next.length);
+        for (int k = start; k < end; k++) {
+            buffer[start + next[cells[k]]++] = ids[k];
+        }
+        System.arraycopy(buffer, start, ids, start, size);
+
+        for (int child = 0; child < fanout * fanout; child++) {
+            if (offsets[child] < offsets[child + 1]) {
+                cell.children[child] = construct(start + offsets[child], start + offsets[child + 1], threshold, cells, buffer);
+            }
+        }
+        return cell;
+    }
+
+    private static class GridCell {
+        private final int start;
+        private final int end;
+
+        // bounding box of the points of the cell
+        private final double minX;
+        private final double maxX;
+        private final double minY;
+        private final double maxY;
+
+        // only present in split cells: child (i, j) has index i * fanout + j, null if it is empty
+        private GridCell[] children;
+        private int fanout;
+        private double cellWidth;
+        private double cellHeight;
+
+        GridCell(final int start, final int end, final double minX, final double maxX, final double minY, final double maxY) {
+            this.start = start;
+            this.end = end;
+            this.minX = minX;
+            this.maxX = maxX;
+            this.minY = minY;
+            this.maxY = maxY;
+        }
+
+        void split(final int fanout) {
+            this.fanout = fanout;
+            this.children = new GridCell[fanout * fanout];
+            this.cellWidth = maxX > minX ? (maxX - minX) / fanout : 1;
+            this.cellHeight = maxY > minY ? (maxY - minY) / fanout : 1;
+        }
+
+        boolean isDisjoint(final Window window) {
+            return window.getXMax() < minX || maxX < window.getXMin() || window.getYMax() < minY || maxY < window.getYMin();
+        }
+
+        boolean isCoveredBy(final Window window) {
+            return window.getXMin() <= minX && maxX <= window.getXMax() && window.getYMin() <= minY && maxY <= window.getYMax();
+        }
+
+        int cellI(final double x) {
+            return Cells.clamp(Math.floor((x - minX) / cellWidth), fanout);
+        }
+
+        int cellJ(final double y) {
+            return Cells.clamp(Math.floor((y - minY) / cellHeight), fanout);
+        }
+    }
+}
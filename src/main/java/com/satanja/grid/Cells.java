@@ -0,0 +1,15 @@
+package com.satanja.grid;
+
+// helpers shared by the grids
+final class Cells {
+
+    // the rounding of the cell index of a coordinate can put a point up to this fraction of a cell outside its cell
+    static final double ROUNDING_SLACK = 1e-9;
+
+    private Cells() {
+    }
+
+    static int clamp(final double index, final int size) {
+        return (int) Math.max(0, Math.min(size - 1, index));
+    }
+}
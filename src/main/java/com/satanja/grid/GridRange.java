@@ -1,212 +1,503 @@
 package com.satanja.grid;
 
+import com.satanja.metrics.Metrics;
+import com.satanja.rangetree.Neighbours;
 import com.satanja.rangetree.Point;
+import com.satanja.rangetree.PointConsumer;
+import com.satanja.rangetree.PointSet;
+import com.satanja.rangetree.SpatialIndex;
 import com.satanja.rangetree.Window;
 import com.satanja.util.WindowUtils;
 
-import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
-public class GridRange {
+// queries from several threads are safe only while no points are inserted or removed
+public class GridRange implements SpatialIndex {
 
-    final Cell[][] grid;
+    // the grid does not grow past this many cells, points it would have to grow past go to the overflow cell
+    static final long MAX_CELLS = 1 << 22;
 
-    final int columns;
-    final int rows;
+    Cell[][] grid;
+
+    int columns;
+    int rows;
 
     final double cellWidth;
     final double cellHeight;
 
-    final Window window;
+    // cell (i, j) starts at (originX + (i - offsetI) * cellWidth, originY + (j - offsetJ) * cellHeight), growing the
+    // grid below the origin only shifts the offsets so existing cells keep their exact bounds
+    final double originX;
+    final double originY;
+    int offsetI;
+    int offsetJ;
+
+    // points too far outside the grid to grow it for, every query checks them one by one
+    private final Cell overflow = new Cell();
+
+    // the cell and position of one stored copy of every point
+    private final Map<Point, Slot> slots = new HashMap<>();
+    private int size;
 
     public GridRange(final List<Point> points, final int subdivisions) {
-        this.window = boundingBox(points);
+        this(PointSet.of(points).bounds(), subdivisions);
+        final long start = Metrics.ENABLED ? System.nanoTime() : 0;
+        for (final Point point : points) {
+            insert(point);
+        }
 
-        final double width = window.getXMax() - window.getXMin();
+        if (Metrics.ENABLED) {
+            Metrics.GRID_RANGE_BUILD.record(System.nanoTime() - start, 0, 0, rows * columns, points.size(), points.size());
+        }
+    }
+
+    // subdivisions chosen from the density of the points, a non-positive window size means the windows are unknown
+    public static GridRange adaptive(final List<Point> points, final double expectedWindowSize) {
+        return new GridRange(points, GridTuning.subdivisions(PointSet.of(points), expectedWindowSize));
+    }
+
+    // an empty grid over the bounds, it grows when points are inserted outside of them
+    public GridRange(final Window bounds, final int subdivisions) {
+        final double width = bounds.getXMax() - bounds.getXMin();
         this.columns = subdivisions + 1;
-        this.cellWidth = width / subdivisions;
+        this.cellWidth = width > 0 ? width / subdivisions : 1;
 
-        final double height = window.getYMax() - window.getYMin();
+        final double height = bounds.getYMax() - bounds.getYMin();
         this.rows = subdivisions + 1;
-        this.cellHeight = height / subdivisions;
+        this.cellHeight = height > 0 ? height / subdivisions : 1;
+
+        this.originX = bounds.getXMin();
+        this.originY = bounds.getYMin();
 
         this.grid = new Cell[rows][columns];
         for (int i = 0; i < rows; i++) {
             for (int j = 0; j < columns; j++) {
                 grid[i][j] = new Cell();
+            }
+        }
+    }
+
+    public void insert(final Point point) {
+        checkFinite(point);
+        ensureContains(point);
+        final Cell cell = getCell(point);
 
-                final double minxX = cellWidth * i + window.getXMin();
-                final double maxX = cellWidth * (i + 1) + window.getXMin();
+        final Slot slot = slots.get(point);
+        if (slot == null) {
+            slots.put(point, new Slot(cell, cell.getPoints().size()));
+        } else {
+            slot.copies++;
+        }
 
-                final double minY = cellHeight * j + window.getYMin();
-                final double maxY = cellHeight * (j + 1) + window.getYMin();
+        cell.addPoint(point);
+        size++;
+    }
 
-                final Window range = new Window(minxX, maxX, minY, maxY);
-                grid[i][j].setRange(range);
-                grid[i][j].setIndexes(i, j);
+    // removes one copy of the point in expected O(1) by moving the last point of its cell into its place
+    public boolean remove(final Point point) {
+        final Slot slot = slots.get(point);
+        if (slot == null) {
+            return false;
+        }
+
+        final Cell cell = slot.cell;
+        final Point moved = cell.removePoint(slot.index);
+        if (moved != null) {
+            final Slot movedSlot = slots.get(moved);
+            if (movedSlot.index == cell.getPoints().size()) {
+                movedSlot.index = slot.index;
             }
         }
 
-        for (final Point point : points) {
-            final Cell cell = getCell(point);
-            cell.addPoint(point);
+        slot.copies--;
+        if (slot.copies == 0) {
+            slots.remove(point);
+        } else if (slot.index >= cell.getPoints().size() || !cell.getPoints().get(slot.index).equals(point)) {
+            slot.index = cell.getPoints().indexOf(point);
+        }
+
+        size--;
+        return true;
+    }
+
+    // moves one copy of from to to, in place when both fall in the same cell
+    public boolean move(final Point from, final Point to) {
+        final Slot slot = slots.get(from);
+        if (slot == null) {
+            return false;
         }
+
+        checkFinite(to);
+        ensureContains(to);
+        if (slot.copies == 1 && slot.cell == getCell(to) && !slots.containsKey(to)) {
+            slot.cell.getPoints().set(slot.index, to);
+            slots.remove(from);
+            slots.put(to, slot);
+            return true;
+        }
+
+        remove(from);
+        insert(to);
+        return true;
     }
 
-    public List<Point> search(final Window window) {
-        final Point center = new Point((window.getXMin() + window.getXMax()) / 2, (window.getYMin() + window.getYMax()) / 2);
-        final Cell centerCell = getCell(center);
+    public int size() {
+        return size;
+    }
 
-        final Deque<Cell> queue = new ArrayDeque<>();
-        queue.add(centerCell);
+    // the scanned and returned points are only counted when the metrics are enabled, otherwise the JIT drops the counts
+    @Override
+    public void search(final Window window, final PointConsumer consumer) {
+        final long start = Metrics.ENABLED ? System.nanoTime() : 0;
+        final double iMin = cellI(window.getXMin());
+        final double iMax = cellI(window.getXMax());
+        final double jMin = cellJ(window.getYMin());
+        final double jMax = cellJ(window.getYMax());
+
+        int cellsTouched = 0;
+        int scanned = 0;
+        int returned = 0;
+        final List<Point> outliers = overflow.getPoints();
+        for (int k = 0; k < outliers.size(); k++) {
+            final Point point = outliers.get(k);
+            if (WindowUtils.windowContainsPoint(window, point)) {
+                consumer.accept(point);
+                returned++;
+            }
+        }
+        scanned += outliers.size();
 
-        final List<Point> result = new ArrayList<>();
-        final boolean[][] seen = new boolean[rows][columns];
-        seen[centerCell.i][centerCell.j] = true;
+        if (iMax < 0 || iMin >= rows || jMax < 0 || jMin >= columns) {
+            if (Metrics.ENABLED) {
+                Metrics.GRID_RANGE_SEARCH.record(System.nanoTime() - start, 0, 0, 0, scanned, returned);
+            }
+            return;
+        }
 
-        while (!queue.isEmpty()) {
-            final Cell cell = queue.pop();
-            if (cell.isCoveredByWindow(window)) {
-                result.addAll(cell.getPoints());
-            } else {
-                // linear search but can also be sorted by x...
-                for (final Point point : cell.getPoints()) {
-                    if (WindowUtils.windowContainsPoint(window, point)) {
-                        result.add(point);
+        final int lastI = Cells.clamp(iMax, rows);
+        final int lastJ = Cells.clamp(jMax, columns);
+        for (int i = Cells.clamp(iMin, rows); i <= lastI; i++) {
+            for (int j = Cells.clamp(jMin, columns); j <= lastJ; j++) {
+                final List<Point> points = grid[i][j].getPoints();
+                cellsTouched++;
+                scanned += points.size();
+                if (isInterior(i, j, iMin, iMax, jMin, jMax)) {
+                    for (int k = 0; k < points.size(); k++) {
+                        consumer.accept(points.get(k));
+                    }
+                    returned += points.size();
+                } else {
+                    for (int k = 0; k < points.size(); k++) {
+                        final Point point = points.get(k);
+                        if (WindowUtils.windowContainsPoint(window, point)) {
+                            consumer.accept(point);
+                            returned++;
+                        }
                     }
                 }
             }
+        }
 
-            final int i = cell.getI();
-            final int j = cell.getJ();
+        if (Metrics.ENABLED) {
+            Metrics.GRID_RANGE_SEARCH.record(System.nanoTime() - start, 0, 0, cellsTouched, scanned, returned);
+        }
+    }
 
-            if (i > 0) {
-                final Cell next = grid[i - 1][j];
-                if (next.intersects(window) && !seen[next.i][next.j]) {
-                    queue.add(next);
-                }
-                seen[next.i][next.j] = true;
+    // cells whose farthest corner lies in the circle are reported without computing the distances of their points
+    @Override
+    public void searchRadius(final Point center, final double radius, final PointConsumer consumer) {
+        final double cx = center.getX();
+        final double cy = center.getY();
+        final double squaredRadius = radius * radius;
+        final double iMin = cellI(cx - radius);
+        final double iMax = cellI(cx + radius);
+        final double jMin = cellJ(cy - radius);
+        final double jMax = cellJ(cy + radius);
+        if (radius < 0) {
+            return;
+        }
+
+        final List<Point> outliers = overflow.getPoints();
+        for (int k = 0; k < outliers.size(); k++) {
+            final Point point = outliers.get(k);
+            final double pointDx = point.getX() - cx;
+            final double pointDy = point.getY() - cy;
+            if (pointDx * pointDx + pointDy * pointDy <= squaredRadius) {
+                consumer.accept(point);
             }
+        }
+        if (iMax < 0 || iMin >= rows || jMax < 0 || jMin >= columns) {
+            return;
+        }
 
-            if (i + 1 < rows) {
-                final Cell next = grid[i + 1][j];
-                if (next.intersects(window) && !seen[next.i][next.j]) {
-                    queue.add(next);
+        final double slackX = Cells.ROUNDING_SLACK * cellWidth;
+        final double slackY = Cells.ROUNDING_SLACK * cellHeight;
+        final int lastI = Cells.clamp(iMax, rows);
+        final int lastJ = Cells.clamp(jMax, columns);
+        for (int i = Cells.clamp(iMin, rows); i <= lastI; i++) {
+            final double dx = Math.max(cx - cellX(i), cellX(i + 1) - cx) + slackX;
+            for (int j = Cells.clamp(jMin, columns); j <= lastJ; j++) {
+                final List<Point> points = grid[i][j].getPoints();
+                final double dy = Math.max(cy - cellY(j), cellY(j + 1) - cy) + slackY;
+                if (dx * dx + dy * dy <= squaredRadius) {
+                    for (int k = 0; k < points.size(); k++) {
+                        consumer.accept(points.get(k));
+                    }
+                } else {
+                    for (int k = 0; k < points.size(); k++) {
+                        final Point point = points.get(k);
+                        final double pointDx = point.getX() - cx;
+                        final double pointDy = point.getY() - cy;
+                        if (pointDx * pointDx + pointDy * pointDy <= squaredRadius) {
+                            consumer.accept(point);
+                        }
+                    }
                 }
-                seen[next.i][next.j] = true;
             }
+        }
+    }
 
-            if (j > 0) {
-                final Cell next = grid[i][j - 1];
-                if (next.intersects(window) && !seen[next.i][next.j]) {
-                    queue.add(next);
-                }
-                seen[next.i][next.j] = true;
+    // interior cells contribute their size, only the points of the border cells are checked
+    @Override
+    public int count(final Window window) {
+        final double iMin = cellI(window.getXMin());
+        final double iMax = cellI(window.getXMax());
+        final double jMin = cellJ(window.getYMin());
+        final double jMax = cellJ(window.getYMax());
+
+        int count = 0;
+        final List<Point> outliers = overflow.getPoints();
+        for (int k = 0; k < outliers.size(); k++) {
+            if (WindowUtils.windowContainsPoint(window, outliers.get(k))) {
+                count++;
             }
+        }
+        if (iMax < 0 || iMin >= rows || jMax < 0 || jMin >= columns) {
+            return count;
+        }
 
-            if (j + 1 < columns) {
-                final Cell next = grid[i][j + 1];
-                if (next.intersects(window) && !seen[next.i][next.j]) {
-                    queue.add(next);
+        final int lastI = Cells.clamp(iMax, rows);
+        final int lastJ = Cells.clamp(jMax, columns);
+        for (int i = Cells.clamp(iMin, rows); i <= lastI; i++) {
+            for (int j = Cells.clamp(jMin, columns); j <= lastJ; j++) {
+                final List<Point> points = grid[i][j].getPoints();
+                if (isInterior(i, j, iMin, iMax, jMin, jMax)) {
+                    count += points.size();
+                } else {
+                    for (int k = 0; k < points.size(); k++) {
+                        if (WindowUtils.windowContainsPoint(window, points.get(k))) {
+                            count++;
+                        }
+                    }
                 }
-                seen[next.i][next.j] = true;
             }
         }
-
-        return result;
+        return count;
     }
 
-    private static Window boundingBox(final List<Point> points) {
-        double minX = points.get(0).getX();
-        double maxX = minX;
-        double minY = points.get(0).getY();
-        double maxY = minY;
+    /*
+     * Visits the cells in square rings around the cell of the point. Every point outside the rings visited so far lies
+     * at least as far as the nearest edge of their square, so the search stops once that edge is farther than the k-th
+     * nearest point.
+     */
+    public Neighbours nearest(final Point point, final int k) {
+        if (k < 0) {
+            throw new IllegalArgumentException("Expected a non-negative number of neighbours but got " + k);
+        }
 
-        for (final Point point : points) {
-            minX = Math.min(minX, point.getX());
-            maxX = Math.max(maxX, point.getX());
-            minY = Math.min(minY, point.getY());
-            maxY = Math.max(maxY, point.getY());
+        // no more neighbours than points, so a huge k does not size the heap
+        final Neighbours neighbours = new Neighbours(Math.min(k, size));
+        if (size == 0 || k == 0) {
+            return neighbours;
         }
 
-        return new Window(minX, maxX, minY, maxY);
+        offerCell(overflow, point, neighbours);
+        final int centerI = Cells.clamp(cellI(point.getX()), rows);
+        final int centerJ = Cells.clamp(cellJ(point.getY()), columns);
+        final int rings = Math.max(Math.max(centerI, rows - 1 - centerI), Math.max(centerJ, columns - 1 - centerJ));
+        for (int ring = 0; ring <= rings; ring++) {
+            for (int i = Math.max(0, centerI - ring); i <= Math.min(rows - 1, centerI + ring); i++) {
+                // inner rows of the ring only have their two border cells in it
+                final int step = i == centerI - ring || i == centerI + ring ? 1 : 2 * ring;
+                for (int j = centerJ - ring; j <= centerJ + ring; j += step) {
+                    if (0 <= j && j < columns) {
+                        offerCell(grid[i][j], point, neighbours);
+                    }
+                }
+            }
+
+            final double outside = Math.min(
+                    Math.min(point.getX() - cellX(centerI - ring), cellX(centerI + ring + 1) - point.getX()),
+                    Math.min(point.getY() - cellY(centerJ - ring), cellY(centerJ + ring + 1) - point.getY()));
+            final double distance = outside - Cells.ROUNDING_SLACK * Math.max(cellWidth, cellHeight);
+            if (distance > 0 && distance * distance >= neighbours.bound()) {
+                break;
+            }
+        }
+        return neighbours;
     }
 
-    private Cell getCell(final Point point) {
-        final double correctedX = point.getX() - this.window.getXMin();
-        final double correctedY = point.getY() - this.window.getYMin();
+    private static void offerCell(final Cell cell, final Point point, final Neighbours neighbours) {
+        final List<Point> points = cell.getPoints();
+        for (int k = 0; k < points.size(); k++) {
+            final Point candidate = points.get(k);
+            final double dx = candidate.getX() - point.getX();
+            final double dy = candidate.getY() - point.getY();
+            neighbours.offer(dx * dx + dy * dy, -1, candidate);
+        }
+    }
 
-        final int i = (int) (correctedX / this.cellWidth);
-        final int j = (int) (correctedY / this.cellHeight);
+    // lower x of cell i
+    private double cellX(final int i) {
+        return originX + (i - offsetI) * cellWidth;
+    }
 
-        if (i == rows || j == columns) {
-            System.out.println("shit");
-        }
-        return grid[i][j];
+    // lower y of cell j
+    private double cellY(final int j) {
+        return originY + (j - offsetJ) * cellHeight;
     }
 
-    private static class Cell {
-        private final List<Point> points = new ArrayList<>();
-        private Point bottomLeft;
-        private Point topRight;
-        private int i;
-        private int j;
+    /*
+     * The cell index is monotone in the coordinate, so a point in a cell strictly between the cells of both window
+     * edges lies strictly inside the window on that axis, without comparing against the cell bounds.
+     */
+    private static boolean isInterior(final int i, final int j, final double iMin, final double iMax, final double jMin, final double jMax) {
+        return iMin < i && i < iMax && jMin < j && j < jMax;
+    }
 
-        void addPoint(final Point point) {
-            points.add(point);
+    /*
+     * Doubles the grid in every direction the point lies outside of it, if the doubled grid contains the point and
+     * stays within MAX_CELLS. A point farther out is left to the overflow cell, so the memory does not follow the
+     * distance of outliers.
+     */
+    private void ensureContains(final Point point) {
+        final double i = cellI(point.getX());
+        final double j = cellJ(point.getY());
+        if (0 <= i && i < rows && 0 <= j && j < columns) {
+            return;
         }
-
-        void setRange(final Window range) {
-            bottomLeft = new Point(range.getXMin(), range.getYMin());
-            topRight = new Point(range.getXMax(), range.getYMax());
+        if (i < -rows || i >= 2L * rows || j < -columns || j >= 2L * columns) {
+            return;
         }
 
-        void setIndexes(final int i, final int j) {
-            this.i = i;
-            this.j = j;
+        final int left = i < 0 ? rows : 0;
+        final int right = i >= rows ? rows : 0;
+        final int bottom = j < 0 ? columns : 0;
+        final int top = j >= columns ? columns : 0;
+        if ((long) (rows + left + right) * (columns + bottom + top) > MAX_CELLS) {
+            return;
         }
 
-        public int getI() {
-            return i;
+        offsetI += left;
+        offsetJ += bottom;
+
+        final Cell[][] grown = new Cell[rows + left + right][columns + bottom + top];
+        for (int newI = 0; newI < grown.length; newI++) {
+            for (int newJ = 0; newJ < grown[newI].length; newJ++) {
+                final int oldI = newI - left;
+                final int oldJ = newJ - bottom;
+                if (0 <= oldI && oldI < rows && 0 <= oldJ && oldJ < columns) {
+                    grown[newI][newJ] = grid[oldI][oldJ];
+                } else {
+                    grown[newI][newJ] = new Cell();
+                }
+            }
         }
 
-        public int getJ() {
-            return j;
+        this.grid = grown;
+        this.rows = grown.length;
+        this.columns = grown[0].length;
+        rehomeOverflow();
+    }
+
+    /*
+     * Moves the overflow points the grown grid covers into their cells, so all copies of a point stay in the one cell
+     * its slot refers to. The points left in the overflow cell are compacted and their slots get their new positions.
+     */
+    private void rehomeOverflow() {
+        final List<Point> outliers = overflow.getPoints();
+        int kept = 0;
+        for (int k = 0; k < outliers.size(); k++) {
+            final Point point = outliers.get(k);
+            final Cell cell = getCell(point);
+            if (cell == overflow) {
+                outliers.set(kept++, point);
+                continue;
+            }
+
+            final Slot slot = slots.get(point);
+            if (slot.cell == overflow) {
+                slot.cell = cell;
+                slot.index = cell.getPoints().size();
+            }
+            cell.addPoint(point);
         }
+        outliers.subList(kept, outliers.size()).clear();
 
-        List<Point> getPoints() {
-            return points;
+        for (int k = 0; k < kept; k++) {
+            slots.get(outliers.get(k)).index = k;
         }
+    }
 
-        boolean intersects(final Window window) {
-            final Point queryBottomLeft = new Point(window.getXMin(), window.getYMin());
-            final Point queryTopRight = new Point(window.getXMax(), window.getYMax());
+    private double cellI(final double x) {
+        return Math.floor((x - originX) / cellWidth) + offsetI;
+    }
 
-            if (queryBottomLeft.getX() > topRight.getX() || queryTopRight.getX() < bottomLeft.getX()) {
-                return false;
-            }
+    private double cellJ(final double y) {
+        return Math.floor((y - originY) / cellHeight) + offsetJ;
+    }
+
+    // the overflow cell for a point outside the grid
+    private Cell getCell(final Point point) {
+        final double i = cellI(point.getX());
+        final double j = cellJ(point.getY());
+        if (0 <= i && i < rows && 0 <= j && j < columns) {
+            return grid[(int) i][(int) j];
+        }
+        return overflow;
+    }
 
-            return !(queryBottomLeft.getY() > topRight.getY()) && !(queryTopRight.getY() < bottomLeft.getY());
+    private static void checkFinite(final Point point) {
+        if (!Double.isFinite(point.getX()) || !Double.isFinite(point.getY())) {
+            throw new IllegalArgumentException("Expected finite coordinates but got " + point);
         }
+    }
 
-        boolean isCoveredByWindow(final Window window) {
-            final Point queryBottomLeft = new Point(window.getXMin(), window.getYMin());
-            final Point queryTopRight = new Point(window.getXMax(), window.getYMax());
+    private static class Slot {
+        private Cell cell;
+        private int index;
+        private int copies = 1;
 
-            return queryBottomLeft.getX() <= bottomLeft.getX() && queryBottomLeft.getY() <= bottomLeft.getY() &&
-                    queryTopRight.getX() >= topRight.getX() && queryTopRight.getY() >= topRight.getY();
+        Slot(final Cell cell, final int index) {
+            this.cell = cell;
+            this.index = index;
         }
     }
 
-    private static class GridCellIndex {
-        int i;
-        int j;
+    private static class Cell {
+        private final List<Point> points = new ArrayList<>();
+
+        void addPoint(final Point point) {
+            points.add(point);
+        }
 
-        public GridCellIndex(int i, int j) {
-            this.i = i;
-            this.j = j;
+        // swaps the last point into the index, returns that point or null if the last point itself was removed
+        Point removePoint(final int index) {
+            final int last = points.size() - 1;
+            final Point moved = points.remove(last);
+            if (index == last) {
+                return null;
+            }
+
+            points.set(index, moved);
+            return moved;
+        }
+
+        List<Point> getPoints() {
+            return points;
         }
     }
 
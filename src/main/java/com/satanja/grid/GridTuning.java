@@ -0,0 +1,64 @@
+package com.satanja.grid;
+
+import com.satanja.rangetree.PointSet;
+import com.satanja.rangetree.Window;
+
+/*
+ * Chooses the number of subdivisions of a grid from the data. The occupied fraction of the bounding box is estimated
+ * from a strided sample, and the grid gets enough cells that every occupied cell holds about TARGET_CELL_SIZE points.
+ * An expected window size caps the resolution, so that a window touches a bounded number of cells.
+ */
+final class GridTuning {
+
+    static final int TARGET_CELL_SIZE = 16;
+
+    private static final int SAMPLE_SIZE = 4096;
+    private static final int MAX_SUBDIVISIONS = 2048;
+
+    // windows cover at most this many cells along each axis
+    private static final int CELLS_PER_WINDOW = 4;
+
+    private GridTuning() {
+    }
+
+    // a non-positive window size means the query windows are unknown
+    static int subdivisions(final PointSet points, final double expectedWindowSize) {
+        final int size = points.size();
+        if (size == 0) {
+            return 1;
+        }
+
+        final Window bounds = points.bounds();
+        final double minX = bounds.getXMin();
+        final double maxX = bounds.getXMax();
+        final double minY = bounds.getYMin();
+        final double maxY = bounds.getYMax();
+
+        // about four samples per bin, so a uniform sample occupies nearly every bin
+        final int samples = Math.min(size, SAMPLE_SIZE);
+        final int bins = Math.max(1, (int) Math.sqrt(samples / 4.0));
+        final double binWidth = maxX > minX ? (maxX - minX) / bins : 1;
+        final double binHeight = maxY > minY ? (maxY - minY) / bins : 1;
+        final boolean[] occupied = new boolean[bins * bins];
+        int occupiedBins = 0;
+        for (int k = 0; k < samples; k++) {
+            final int id = (int) ((long) k * size / samples);
+            final int i = Cells.clamp(Math.floor((points.getX(id) - minX) / binWidth), bins);
+            final int j = Cells.clamp(Math.floor((points.getY(id) - minY) / binHeight), bins);
+            if (!occupied[i * bins + j]) {
+                occupied[i * bins + j] = true;
+                occupiedBins++;
+            }
+        }
+
+        final double occupiedFraction = (double) occupiedBins / (bins * bins);
+        double subdivisions = Math.ceil(Math.sqrt(size / (TARGET_CELL_SIZE * occupiedFraction)));
+
+        final double extent = Math.max(maxX - minX, maxY - minY);
+        if (expectedWindowSize > 0 && extent > 0) {
+            subdivisions = Math.min(subdivisions, Math.ceil(CELLS_PER_WINDOW * extent / expectedWindowSize));
+        }
+
+        return (int) Math.max(1, Math.min(MAX_SUBDIVISIONS, subdivisions));
+    }
+}
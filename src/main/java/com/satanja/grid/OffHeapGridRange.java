@@ -0,0 +1,315 @@
+package com.satanja.grid;
+
+import com.satanja.rangetree.IdConsumer;
+import com.satanja.rangetree.IdIndex;
+import com.satanja.rangetree.Point;
+import com.satanja.rangetree.PointConsumer;
+import com.satanja.rangetree.PointSet;
+import com.satanja.rangetree.SpatialIndex;
+import com.satanja.rangetree.Window;
+import com.satanja.util.SortUtils;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+
+/**
+ * {@link PackedGridRange} layout outside the Java heap: the cell offsets, the coordinates and the ids live in native
+ * memory of a shared {@link Arena}, so the garbage collector sees a handful of objects however many points are indexed.
+ * The memory is freed by {@link #close}, queries after that fail with an {@link IllegalStateException}.
+ * <p>
+ * The index does not keep the {@link PointSet} it was built from, {@link #search} reports new points with the stored
+ * coordinates. As in the packed grid, the points of a cell are sorted on x, the cells are sorted one at a time so the
+ * construction needs heap space for the largest cell only.
+ * <p>
+ * Queries from several threads are safe until the index is closed, a {@link com.satanja.rangetree.SnapshotIndex} closes
+ * it once the last reader is done.
+ */
+public class OffHeapGridRange implements SpatialIndex, IdIndex, AutoCloseable {
+
+    private static final ValueLayout.OfLong LONG = ValueLayout.JAVA_LONG;
+    private static final ValueLayout.OfDouble DOUBLE = ValueLayout.JAVA_DOUBLE;
+    private static final ValueLayout.OfInt INT = ValueLayout.JAVA_INT;
+
+    private final int size;
+
+    private final int columns;
+    private final int rows;
+
+    private final double minX;
+    private final double minY;
+    private final double cellWidth;
+    private final double cellHeight;
+
+    private final Arena arena;
+
+    // cell (i, j) has index i * rows + j and occupies the positions [offsets[c], offsets[c + 1])
+    private final MemorySegment offsets;
+    private final MemorySegment xs;
+    private final MemorySegment ys;
+    private final MemorySegment ids;
+
+    public OffHeapGridRange(final PointSet pointSet, final int subdivisions) {
+        if (subdivisions < 1) {
+            throw new IllegalArgumentException("Expected at least one subdivision but got " + subdivisions);
+        }
+
+        this.size = pointSet.size();
+
+        final Window bounds = pointSet.bounds();
+
+        this.minX = bounds.getXMin();
+        this.minY = bounds.getYMin();
+        this.columns = subdivisions + 1;
+        this.rows = subdivisions + 1;
+        this.cellWidth = bounds.getXMax() > minX ? (bounds.getXMax() - minX) / subdivisions : 1;
+        this.cellHeight = bounds.getYMax() > minY ? (bounds.getYMax() - minY) / subdivisions : 1;
+
+        final long cells = (long) columns * rows;
+        this.arena = Arena.ofShared();
+        try {
+            this.offsets = allocate(cells + 1, LONG);
+            this.xs = allocate(size, DOUBLE);
+            this.ys = allocate(size, DOUBLE);
+            this.ids = allocate(size, INT);
+
+            // counting sort on the cell, the cell of a point is computed again instead of being buffered
+            offsets.fill((byte) 0);
+            for (int id = 0; id < size; id++) {
+                final long cell = cell(pointSet.getX(id), pointSet.getY(id));
+                offsets.setAtIndex(LONG, cell + 1, offset(cell + 1) + 1);
+            }
+            for (long cell = 0; cell < cells; cell++) {
+                offsets.setAtIndex(LONG, cell + 1, offset(cell + 1) + offset(cell));
+            }
+
+            try (Arena buffer = Arena.ofConfined()) {
+                final MemorySegment next = buffer.allocate(cells * Long.BYTES, Long.BYTES);
+                MemorySegment.copy(offsets, 0, next, 0, cells * Long.BYTES);
+                for (int id = 0; id < size; id++) {
+                    final double x = pointSet.getX(id);
+                    final double y = pointSet.getY(id);
+                    final long cell = cell(x, y);
+                    final long position = next.getAtIndex(LONG, cell);
+                    next.setAtIndex(LONG, cell, position + 1);
+                    xs.setAtIndex(DOUBLE, position, x);
+                    ys.setAtIndex(DOUBLE, position, y);
+                    ids.setAtIndex(INT, position, id);
+                }
+            }
+
+            for (long cell = 0; cell < cells; cell++) {
+                sortCell(offset(cell), offset(cell + 1));
+            }
+        } catch (final RuntimeException | Error e) {
+            arena.close();
+            throw e;
+        }
+    }
+
+    // subdivisions chosen from the density of the points, a non-positive window size means the windows are unknown
+    public static OffHeapGridRange adaptive(final PointSet pointSet, final double expectedWindowSize) {
+        return new OffHeapGridRange(pointSet, GridTuning.subdivisions(pointSet, expectedWindowSize));
+    }
+
+    @Override
+    public void search(final Window window, final PointConsumer consumer) {
+        visit(window, null, (x, y) -> consumer.accept(new Point(x, y)), null);
+    }
+
+    @Override
+    public void searchIds(final Window window, final IdConsumer consumer) {
+        visit(window, consumer, null, null);
+    }
+
+    // collects the ids with one bulk copy per column of interior cells
+    @Override
+    public int[] searchIds(final Window window) {
+        final int[] result = new int[count(window)];
+        if (result.length > 0) {
+            visit(window, null, null, result);
+        }
+        return result;
+    }
+
+    @Override
+    public int count(final Window window) {
+        return visit(window, null, null, null);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // frees the native memory
+    @Override
+    public void close() {
+        arena.close();
+    }
+
+    /*
+     * Reports the hits to one of the consumers, or copies their ids into the target if there is none, and returns
+     * their number. As in PackedGridRange, only the border cells check coordinates and the interior cells of a column
+     * form one contiguous run.
+     */
+    private int visit(final Window window, final IdConsumer consumer, final CoordinateConsumer points, final int[] target) {
+        if (size == 0) {
+            return 0;
+        }
+
+        final int firstI = cellI(window.getXMin());
+        final int lastI = cellI(window.getXMax());
+        final int firstJ = cellJ(window.getYMin());
+        final int lastJ = cellJ(window.getYMax());
+        int count = 0;
+        for (int i = firstI; i <= lastI; i++) {
+            final long column = (long) i * rows;
+            if (i == firstI || i == lastI) {
+                for (int j = firstJ; j <= lastJ; j++) {
+                    count = visitCell(window, column + j, true, j == firstJ || j == lastJ, consumer, points, target, count);
+                }
+            } else {
+                count = visitCell(window, column + firstJ, false, true, consumer, points, target, count);
+                if (firstJ < lastJ) {
+                    count = visitRange(window, offset(column + firstJ + 1), offset(column + lastJ), false, consumer, points, target, count);
+                    count = visitCell(window, column + lastJ, false, true, consumer, points, target, count);
+                }
+            }
+        }
+        return count;
+    }
+
+    private int visitCell(final Window window,
+                          final long cell,
+                          final boolean checkX,
+                          final boolean checkY,
+                          final IdConsumer consumer,
+                          final CoordinateConsumer points,
+                          final int[] target,
+                          final int count) {
+        final long from = offset(cell);
+        final long to = offset(cell + 1);
+        if (!checkX) {
+            return visitRange(window, from, to, checkY, consumer, points, target, count);
+        }
+
+        final long start = lowerBound(from, to, window.getXMin());
+        return visitRange(window, start, upperBound(start, to, window.getXMax()), checkY, consumer, points, target, count);
+    }
+
+    private int visitRange(final Window window,
+                           final long from,
+                           final long to,
+                           final boolean checkY,
+                           final IdConsumer consumer,
+                           final CoordinateConsumer points,
+                           final int[] target,
+                           final int count) {
+        if (!checkY) {
+            if (consumer != null) {
+                for (long k = from; k < to; k++) {
+                    consumer.accept(ids.getAtIndex(INT, k));
+                }
+            } else if (points != null) {
+                for (long k = from; k < to; k++) {
+                    points.accept(xs.getAtIndex(DOUBLE, k), ys.getAtIndex(DOUBLE, k));
+                }
+            } else if (target != null) {
+                MemorySegment.copy(ids, INT, from * Integer.BYTES, target, count, (int) (to - from));
+            }
+            return count + (int) (to - from);
+        }
+
+        int result = count;
+        for (long k = from; k < to; k++) {
+            final double y = ys.getAtIndex(DOUBLE, k);
+            if (window.getYMin() <= y && y <= window.getYMax()) {
+                if (consumer != null) {
+                    consumer.accept(ids.getAtIndex(INT, k));
+                } else if (points != null) {
+                    points.accept(xs.getAtIndex(DOUBLE, k), y);
+                } else if (target != null) {
+                    target[result] = ids.getAtIndex(INT, k);
+                }
+                result++;
+            }
+        }
+        return result;
+    }
+
+    // first position in [from, to) with x >= min
+    private long lowerBound(final long from, final long to, final double min) {
+        long lo = from;
+        long hi = to;
+        while (lo < hi) {
+            final long middle = (lo + hi) >>> 1;
+            if (xs.getAtIndex(DOUBLE, middle) < min) {
+                lo = middle + 1;
+            } else {
+                hi = middle;
+            }
+        }
+        return lo;
+    }
+
+    // first position in [from, to) with x > max
+    private long upperBound(final long from, final long to, final double max) {
+        long lo = from;
+        long hi = to;
+        while (lo < hi) {
+            final long middle = (lo + hi) >>> 1;
+            if (xs.getAtIndex(DOUBLE, middle) <= max) {
+                lo = middle + 1;
+            } else {
+                hi = middle;
+            }
+        }
+        return lo;
+    }
+
+    private void sortCell(final long from, final long to) {
+        final int length = (int) (to - from);
+        if (length < 2) {
+            return;
+        }
+
+        final double[] cellXs = new double[length];
+        final double[] cellYs = new double[length];
+        final int[] cellIds = new int[length];
+        MemorySegment.copy(xs, DOUBLE, from * Double.BYTES, cellXs, 0, length);
+        MemorySegment.copy(ys, DOUBLE, from * Double.BYTES, cellYs, 0, length);
+        MemorySegment.copy(ids, INT, from * Integer.BYTES, cellIds, 0, length);
+
+        final int[] order = SortUtils.sortIndexes(cellXs);
+        for (int k = 0; k < length; k++) {
+            xs.setAtIndex(DOUBLE, from + k, cellXs[order[k]]);
+            ys.setAtIndex(DOUBLE, from + k, cellYs[order[k]]);
+            ids.setAtIndex(INT, from + k, cellIds[order[k]]);
+        }
+    }
+
+    private MemorySegment allocate(final long count, final ValueLayout layout) {
+        return arena.allocate(Math.max(1, count) * layout.byteSize(), layout.byteAlignment());
+    }
+
+    private long offset(final long cell) {
+        return offsets.getAtIndex(LONG, cell);
+    }
+
+    private long cell(final double x, final double y) {
+        return (long) cellI(x) * rows + cellJ(y);
+    }
+
+    private int cellI(final double x) {
+        return Cells.clamp(Math.floor((x - minX) / cellWidth), columns);
+    }
+
+    private int cellJ(final double y) {
+        return Cells.clamp(Math.floor((y - minY) / cellHeight), rows);
+    }
+
+    @FunctionalInterface
+    private interface CoordinateConsumer {
+        void accept(double x, double y);
+    }
+}
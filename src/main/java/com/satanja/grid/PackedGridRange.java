@@ -0,0 +1,386 @@
+package com.satanja.grid;
+
+import com.satanja.rangetree.FlatRangeTree;
+import com.satanja.rangetree.IdConsumer;
+import com.satanja.rangetree.IdIndex;
+import com.satanja.rangetree.PairConsumer;
+import com.satanja.rangetree.Point;
+import com.satanja.rangetree.PointConsumer;
+import com.satanja.rangetree.PointSet;
+import com.satanja.rangetree.SpatialIndex;
+import com.satanja.rangetree.Window;
+import com.satanja.util.SortUtils;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Static variant of {@link GridRange} in compressed sparse row layout: the coordinates and ids of all points are
+ * stored cell after cell in three arrays, and cell {@code c} occupies {@code [offsets[c], offsets[c + 1])}. The cells
+ * of a column are adjacent, so the interior cells a window covers in a column form one contiguous run that is reported
+ * without looking at the coordinates. The points of a cell are sorted on x, so a border cell is cut down to the x-range
+ * of the window with two binary searches. Optionally, cells with many points get a {@link FlatRangeTree} of their own.
+ * <p>
+ * Immutable once constructed, queries from several threads are safe.
+ */
+public class PackedGridRange implements SpatialIndex, IdIndex {
+
+    // points a join task handles on its own, a task always gets at least one column
+    private static final int JOIN_STRIPE_SIZE = 4096;
+
+    private final PointSet pointSet;
+
+    private final int columns;
+    private final int rows;
+
+    private final double minX;
+    private final double minY;
+    private final double cellWidth;
+    private final double cellHeight;
+
+    // cell (i, j) has index i * rows + j, within a cell the points are sorted on x
+    private final int[] offsets;
+    private final double[] xs;
+    private final double[] ys;
+    private final int[] ids;
+
+    // per cell, a range tree over the points of the cell if it holds more than denseCellSize points, null otherwise
+    private final FlatRangeTree[] denseCells;
+
+    public PackedGridRange(final List<Point> points, final int subdivisions) {
+        this(PointSet.of(points), subdivisions);
+    }
+
+    public PackedGridRange(final PointSet pointSet, final int subdivisions) {
+        this(pointSet, subdivisions, Integer.MAX_VALUE);
+    }
+
+    // the range tree of a dense cell answers the border queries that have to check both coordinates
+    public PackedGridRange(final PointSet pointSet, final int subdivisions, final int denseCellSize) {
+        if (subdivisions < 1) {
+            throw new IllegalArgumentException("Expected at least one subdivision but got " + subdivisions);
+        }
+
+        this.pointSet = pointSet;
+        final int size = pointSet.size();
+
+        final Window bounds = pointSet.bounds();
+
+        this.minX = bounds.getXMin();
+        this.minY = bounds.getYMin();
+        this.columns = subdivisions + 1;
+        this.rows = subdivisions + 1;
+        this.cellWidth = bounds.getXMax() > minX ? (bounds.getXMax() - minX) / subdivisions : 1;
+        this.cellHeight = bounds.getYMax() > minY ? (bounds.getYMax() - minY) / subdivisions : 1;
+
+        // stable counting sort of the x-sorted ids on their cell
+        final int[] cells = new int[size];
+        this.offsets = new int[columns * rows + 1];
+        for (int id = 0; id < size; id++) {
+            cells[id] = cellI(pointSet.getX(id)) * rows + cellJ(pointSet.getY(id));
+            offsets[cells[id] + 1]++;
+        }
+        for (int cell = 0; cell < columns * rows; cell++) {
+            offsets[cell + 1] += offsets[cell];
+        }
+
+        this.xs = new double[size];
+        this.ys = new double[size];
+        this.ids = new int[size];
+        final int[] next = new int[columns * rows];
+        System.arraycopy(offsets, 0, next, 0, next.length);
+        final double[] unsortedXs = new double[size];
+        for (int id = 0; id < size; id++) {
+            unsortedXs[id] = pointSet.getX(id);
+        }
+        for (final int id : SortUtils.sortIndexes(unsortedXs)) {
+            final int position = next[cells[id]]++;
+            xs[position] = pointSet.getX(id);
+            ys[position] = pointSet.getY(id);
+            ids[position] = id;
+        }
+
+        this.denseCells = new FlatRangeTree[columns * rows];
+        for (int cell = 0; cell < columns * rows; cell++) {
+            if (offsets[cell + 1] - offsets[cell] > denseCellSize) {
+                denseCells[cell] = new FlatRangeTree(new PointSet(Arrays.copyOfRange(xs, offsets[cell], offsets[cell + 1]),
+                        Arrays.copyOfRange(ys, offsets[cell], offsets[cell + 1])));
+            }
+        }
+    }
+
+    // subdivisions chosen from the density of the points, a non-positive window size means the windows are unknown
+    public static PackedGridRange adaptive(final PointSet pointSet, final double expectedWindowSize) {
+        return new PackedGridRange(pointSet, GridTuning.subdivisions(pointSet, expectedWindowSize));
+    }
+
+    @Override
+    public void search(final Window window, final PointConsumer consumer) {
+        searchIds(window, id -> consumer.accept(pointSet.get(id)));
+    }
+
+    @Override
+    public void searchIds(final Window window, final IdConsumer consumer) {
+        visit(window, consumer, null);
+    }
+
+    // collects the ids with one array copy per column of interior cells
+    @Override
+    public int[] searchIds(final Window window) {
+        final int[] result = new int[count(window)];
+        if (result.length > 0) {
+            visit(window, null, result);
+        }
+        return result;
+    }
+
+    @Override
+    public int count(final Window window) {
+        return visit(window, null, null);
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    public int getSubdivisions() {
+        return columns - 1;
+    }
+
+    public double getMinX() {
+        return minX;
+    }
+
+    public double getMinY() {
+        return minY;
+    }
+
+    public double getCellWidth() {
+        return cellWidth;
+    }
+
+    public double getCellHeight() {
+        return cellHeight;
+    }
+
+    // reports the ids of every pair of points at most radius apart once
+    public void selfJoin(final double radius, final PairConsumer consumer) {
+        selfJoin(radius, consumer, null);
+    }
+
+    /*
+     * Cell-pair join: a cell is joined with itself and with the cells after it, in index order, that are close enough
+     * to hold a partner, so every pair of cells and with it every pair of points is looked at once. A stripe of columns
+     * owns the cell pairs whose first cell lies in it, so the stripes are joined in parallel and the consumer has to be
+     * thread-safe when a pool is given.
+     */
+    public void selfJoin(final double radius, final PairConsumer consumer, final ForkJoinPool pool) {
+        if (radius < 0) {
+            throw new IllegalArgumentException("Expected a non-negative radius but got " + radius);
+        }
+
+        if (pool == null) {
+            joinStripe(radius, consumer, 0, columns);
+        } else {
+            pool.invoke(new JoinTask(radius, consumer, 0, columns));
+        }
+    }
+
+    private void joinStripe(final double radius, final PairConsumer consumer, final int fromI, final int toI) {
+        final double squaredRadius = radius * radius;
+
+        // a point lies at least (d - 1) cells away from the points d cells further, up to rounding of the cell index
+        final double slackX = Cells.ROUNDING_SLACK * cellWidth;
+        final double slackY = Cells.ROUNDING_SLACK * cellHeight;
+        final int reachI = (int) Math.min(columns - 1, Math.floor(radius / cellWidth) + 1);
+        final int reachJ = (int) Math.min(rows - 1, Math.floor(radius / cellHeight) + 1);
+
+        for (int i = fromI; i < toI; i++) {
+            for (int j = 0; j < rows; j++) {
+                final int cell = i * rows + j;
+                if (offsets[cell] == offsets[cell + 1]) {
+                    continue;
+                }
+
+                joinCell(cell, squaredRadius, consumer);
+                for (int di = 0; di <= reachI && i + di < columns; di++) {
+                    final double gapX = Math.max(0, (di - 1) * cellWidth - slackX);
+                    for (int dj = di == 0 ? 1 : -reachJ; dj <= reachJ; dj++) {
+                        final double gapY = Math.max(0, (Math.abs(dj) - 1) * cellHeight - slackY);
+                        if (j + dj >= 0 && j + dj < rows && gapX * gapX + gapY * gapY <= squaredRadius) {
+                            joinCells(cell, (i + di) * rows + j + dj, squaredRadius, consumer);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private void joinCell(final int cell, final double squaredRadius, final PairConsumer consumer) {
+        final int to = offsets[cell + 1];
+        for (int a = offsets[cell]; a < to; a++) {
+            for (int b = a + 1; b < to; b++) {
+                final double dx = xs[b] - xs[a];
+                final double dy = ys[b] - ys[a];
+                if (dx * dx + dy * dy <= squaredRadius) {
+                    consumer.accept(ids[a], ids[b]);
+                }
+            }
+        }
+    }
+
+    private void joinCells(final int first, final int second, final double squaredRadius, final PairConsumer consumer) {
+        final int from = offsets[second];
+        final int to = offsets[second + 1];
+        for (int a = offsets[first]; a < offsets[first + 1]; a++) {
+            for (int b = from; b < to; b++) {
+                final double dx = xs[b] - xs[a];
+                final double dy = ys[b] - ys[a];
+                if (dx * dx + dy * dy <= squaredRadius) {
+                    consumer.accept(ids[a], ids[b]);
+                }
+            }
+        }
+    }
+
+    private class JoinTask extends RecursiveAction {
+        private final double radius;
+        private final PairConsumer consumer;
+        private final int fromI;
+        private final int toI;
+
+        JoinTask(final double radius, final PairConsumer consumer, final int fromI, final int toI) {
+            this.radius = radius;
+            this.consumer = consumer;
+            this.fromI = fromI;
+            this.toI = toI;
+        }
+
+        @Override
+        protected void compute() {
+            if (toI - fromI == 1 || offsets[toI * rows] - offsets[fromI * rows] <= JOIN_STRIPE_SIZE) {
+                joinStripe(radius, consumer, fromI, toI);
+                return;
+            }
+
+            final int middle = (fromI + toI) >>> 1;
+            invokeAll(new JoinTask(radius, consumer, fromI, middle), new JoinTask(radius, consumer, middle, toI));
+        }
+    }
+
+    /*
+     * Reports the hits to the consumer, or copies them into the target if there is no consumer, and returns their
+     * number. The clamped cell index is monotone in the coordinate, so a point in a cell strictly between the cells of
+     * both window edges lies inside the window on that axis. Only the other axis is checked in the border cells.
+     */
+    private int visit(final Window window, final IdConsumer consumer, final int[] target) {
+        if (ids.length == 0) {
+            return 0;
+        }
+
+        final int firstI = cellI(window.getXMin());
+        final int lastI = cellI(window.getXMax());
+        final int firstJ = cellJ(window.getYMin());
+        final int lastJ = cellJ(window.getYMax());
+        int size = 0;
+        for (int i = firstI; i <= lastI; i++) {
+            final int column = i * rows;
+            final boolean checkX = i == firstI || i == lastI;
+            if (checkX) {
+                for (int j = firstJ; j <= lastJ; j++) {
+                    size = visitCell(window, column + j, true, j == firstJ || j == lastJ, consumer, target, size);
+                }
+            } else {
+                size = visitCell(window, column + firstJ, false, true, consumer, target, size);
+                if (firstJ < lastJ) {
+                    size = visitRange(window, offsets[column + firstJ + 1], offsets[column + lastJ], false, consumer, target, size);
+                    size = visitCell(window, column + lastJ, false, true, consumer, target, size);
+                }
+            }
+        }
+        return size;
+    }
+
+    private int visitCell(final Window window,
+                          final int cell,
+                          final boolean checkX,
+                          final boolean checkY,
+                          final IdConsumer consumer,
+                          final int[] target,
+                          final int size) {
+        final int from = offsets[cell];
+        final int to = offsets[cell + 1];
+        if (checkY && denseCells[cell] != null) {
+            return visitDenseCell(window, denseCells[cell], from, consumer, target, size);
+        }
+
+        if (!checkX) {
+            return visitRange(window, from, to, checkY, consumer, target, size);
+        }
+
+        final int start = SortUtils.lowerBound(xs, from, to, window.getXMin());
+        return visitRange(window, start, SortUtils.upperBound(xs, start, to, window.getXMax()), checkY, consumer, target, size);
+    }
+
+    // the local ids of the range tree are positions within the cell
+    private int visitDenseCell(final Window window,
+                               final FlatRangeTree tree,
+                               final int from,
+                               final IdConsumer consumer,
+                               final int[] target,
+                               final int size) {
+        if (consumer != null) {
+            tree.searchIds(window, local -> consumer.accept(ids[from + local]));
+            return size;
+        }
+        if (target == null) {
+            return size + tree.count(window);
+        }
+
+        final int[] position = {size};
+        tree.searchIds(window, local -> target[position[0]++] = ids[from + local]);
+        return position[0];
+    }
+
+    private int visitRange(final Window window,
+                           final int from,
+                           final int to,
+                           final boolean checkY,
+                           final IdConsumer consumer,
+                           final int[] target,
+                           final int size) {
+        if (!checkY) {
+            if (consumer != null) {
+                for (int k = from; k < to; k++) {
+                    consumer.accept(ids[k]);
+                }
+            } else if (target != null) {
+                System.arraycopy(ids, from, target, size, to - from);
+            }
+            return size + to - from;
+        }
+
+        int count = size;
+        for (int k = from; k < to; k++) {
+            if (window.getYMin() <= ys[k] && ys[k] <= window.getYMax()) {
+                if (consumer != null) {
+                    consumer.accept(ids[k]);
+                } else if (target != null) {
+                    target[count] = ids[k];
+                }
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private int cellI(final double x) {
+        return Cells.clamp(Math.floor((x - minX) / cellWidth), columns);
+    }
+
+    private int cellJ(final double y) {
+        return Cells.clamp(Math.floor((y - minY) / cellHeight), rows);
+    }
+}
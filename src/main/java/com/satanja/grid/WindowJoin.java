@@ -0,0 +1,268 @@
+package com.satanja.grid;
+
+import com.satanja.rangetree.PointSet;
+import com.satanja.rangetree.Window;
+import com.satanja.rangetree.WindowPointConsumer;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Joins a set of points with a set of windows: every point is reported together with the index of each window that
+ * contains it. The smaller side is indexed and the larger side is streamed through the index in parallel chunks. If
+ * there are fewer points, the windows are searched in a {@link PackedGridRange} over the points. If there are fewer
+ * windows, each window is registered in a grid cell it overlaps, and every point is tested against the windows of its
+ * cell.
+ */
+public final class WindowJoin {
+
+    private static final int MAX_SUBDIVISIONS = 2048;
+
+    // a window over more cells than this is not listed in the cells but tested against every point
+    private static final int MAX_WINDOW_CELLS = 64;
+
+    // points a join task streams on its own
+    private static final int CHUNK_SIZE = 4096;
+
+    private WindowJoin() {
+    }
+
+    public static void join(final PointSet points, final List<Window> windows, final WindowPointConsumer consumer) {
+        join(points, windows, consumer, ForkJoinPool.commonPool());
+    }
+
+    // the consumer has to be thread-safe unless the pool is null
+    public static void join(final PointSet points,
+                            final List<Window> windows,
+                            final WindowPointConsumer consumer,
+                            final ForkJoinPool pool) {
+        if (points.size() == 0 || windows.isEmpty()) {
+            return;
+        }
+
+        if (windows.size() < points.size()) {
+            final WindowGrid grid = new WindowGrid(windows);
+            final JoinTask task = new JoinTask(grid, points, consumer, pool != null, 0, points.size());
+            if (pool == null) {
+                task.compute();
+            } else {
+                pool.invoke(task);
+            }
+        } else {
+            PackedGridRange.adaptive(points, averageSize(windows)).join(windows, consumer, pool);
+        }
+    }
+
+    private static double averageSize(final List<Window> windows) {
+        double sum = 0;
+        for (final Window window : windows) {
+            sum += Math.max(0, Math.max(window.getXMax() - window.getXMin(), window.getYMax() - window.getYMin()));
+        }
+        return sum / windows.size();
+    }
+
+    /*
+     * Grid over the bounding box of the windows, a window is listed in every cell it overlaps. The cells are as large
+     * as the average window, but at least as large as a square cell of a grid with one window per cell, so that a
+     * window overlaps a few cells on average. Windows much larger than the cells, which would be listed in a great many
+     * of them, are kept apart and tested against every point instead.
+     */
+    private static class WindowGrid {
+        private final double minX;
+        private final double maxX;
+        private final double minY;
+        private final double maxY;
+
+        private final int columns;
+        private final int rows;
+        private final double cellWidth;
+        private final double cellHeight;
+
+        // cell (i, j) has index i * rows + j and lists the windows in [offsets[c], offsets[c + 1])
+        private final int[] offsets;
+        private final int[] windowIndexes;
+
+        // the windows that overlap more than MAX_WINDOW_CELLS cells
+        private final int[] largeWindows;
+
+        private final double[] xMins;
+        private final double[] xMaxs;
+        private final double[] yMins;
+        private final double[] yMaxs;
+
+        WindowGrid(final List<Window> windows) {
+            final int size = windows.size();
+            this.xMins = new double[size];
+            this.xMaxs = new double[size];
+            this.yMins = new double[size];
+            this.yMaxs = new double[size];
+
+            double lowX = Double.POSITIVE_INFINITY;
+            double highX = Double.NEGATIVE_INFINITY;
+            double lowY = Double.POSITIVE_INFINITY;
+            double highY = Double.NEGATIVE_INFINITY;
+            double widths = 0;
+            double heights = 0;
+            int nonEmpty = 0;
+            for (int w = 0; w < size; w++) {
+                final Window window = windows.get(w);
+                xMins[w] = window.getXMin();
+                xMaxs[w] = window.getXMax();
+                yMins[w] = window.getYMin();
+                yMaxs[w] = window.getYMax();
+                if (isEmpty(w)) {
+                    continue;
+                }
+
+                lowX = Math.min(lowX, xMins[w]);
+                highX = Math.max(highX, xMaxs[w]);
+                lowY = Math.min(lowY, yMins[w]);
+                highY = Math.max(highY, yMaxs[w]);
+                widths += xMaxs[w] - xMins[w];
+                heights += yMaxs[w] - yMins[w];
+                nonEmpty++;
+            }
+
+            this.minX = lowX;
+            this.maxX = highX;
+            this.minY = lowY;
+            this.maxY = highY;
+
+            final double extentX = maxX - minX;
+            final double extentY = maxY - minY;
+            final double spread = Math.sqrt(Math.max(1, nonEmpty));
+            this.columns = subdivisions(extentX, nonEmpty == 0 ? 0 : Math.max(widths / nonEmpty, extentX / spread));
+            this.rows = subdivisions(extentY, nonEmpty == 0 ? 0 : Math.max(heights / nonEmpty, extentY / spread));
+            this.cellWidth = columns > 1 ? extentX / columns : 1;
+            this.cellHeight = rows > 1 ? extentY / rows : 1;
+
+            this.offsets = new int[columns * rows + 1];
+            final boolean[] large = new boolean[size];
+            int largeCount = 0;
+            long entries = 0;
+            for (int w = 0; w < size; w++) {
+                if (isEmpty(w)) {
+                    continue;
+                }
+                final long cells = (long) (cellI(xMaxs[w]) - cellI(xMins[w]) + 1) * (cellJ(yMaxs[w]) - cellJ(yMins[w]) + 1);
+                if (cells > MAX_WINDOW_CELLS) {
+                    large[w] = true;
+                    largeCount++;
+                } else {
+                    entries += cells;
+                }
+            }
+            if (entries > Integer.MAX_VALUE - 8) {
+                throw new IllegalArgumentException("Expected at most " + (Integer.MAX_VALUE - 8) + " window cells but got " + entries);
+            }
+
+            this.largeWindows = new int[largeCount];
+            largeCount = 0;
+            for (int w = 0; w < size; w++) {
+                if (large[w]) {
+                    largeWindows[largeCount++] = w;
+                } else if (!isEmpty(w)) {
+                    for (int i = cellI(xMins[w]); i <= cellI(xMaxs[w]); i++) {
+                        for (int j = cellJ(yMins[w]); j <= cellJ(yMaxs[w]); j++) {
+                            offsets[i * rows + j + 1]++;
+                        }
+                    }
+                }
+            }
+            for (int cell = 0; cell < columns * rows; cell++) {
+                offsets[cell + 1] += offsets[cell];
+            }
+
+            this.windowIndexes = new int[offsets[columns * rows]];
+            final int[] next = new int[columns * rows];
+            System.arraycopy(offsets, 0, next, 0, next.length);
+            for (int w = 0; w < size; w++) {
+                if (!large[w] && !isEmpty(w)) {
+                    for (int i = cellI(xMins[w]); i <= cellI(xMaxs[w]); i++) {
+                        for (int j = cellJ(yMins[w]); j <= cellJ(yMaxs[w]); j++) {
+                            windowIndexes[next[i * rows + j]++] = w;
+                        }
+                    }
+                }
+            }
+        }
+
+        void join(final PointSet points, final WindowPointConsumer consumer, final int from, final int to) {
+            for (int id = from; id < to; id++) {
+                final double x = points.getX(id);
+                final double y = points.getY(id);
+                if (x < minX || maxX < x || y < minY || maxY < y) {
+                    continue;
+                }
+
+                final int cell = cellI(x) * rows + cellJ(y);
+                for (int k = offsets[cell]; k < offsets[cell + 1]; k++) {
+                    final int w = windowIndexes[k];
+                    if (xMins[w] <= x && x <= xMaxs[w] && yMins[w] <= y && y <= yMaxs[w]) {
+                        consumer.accept(w, points.get(id));
+                    }
+                }
+                for (final int w : largeWindows) {
+                    if (xMins[w] <= x && x <= xMaxs[w] && yMins[w] <= y && y <= yMaxs[w]) {
+                        consumer.accept(w, points.get(id));
+                    }
+                }
+            }
+        }
+
+        private boolean isEmpty(final int w) {
+            return !(xMins[w] <= xMaxs[w] && yMins[w] <= yMaxs[w]);
+        }
+
+        private int cellI(final double x) {
+            return Cells.clamp(Math.floor((x - minX) / cellWidth), columns);
+        }
+
+        private int cellJ(final double y) {
+            return Cells.clamp(Math.floor((y - minY) / cellHeight), rows);
+        }
+
+        private static int subdivisions(final double extent, final double cellSize) {
+            if (!(extent > 0 && cellSize > 0)) {
+                return 1;
+            }
+            return (int) Math.max(1, Math.min(MAX_SUBDIVISIONS, Math.ceil(extent / cellSize)));
+        }
+    }
+
+    private static class JoinTask extends RecursiveAction {
+        private final WindowGrid grid;
+        private final PointSet points;
+        private final WindowPointConsumer consumer;
+        // only a join given a pool is split, even when it runs on a worker thread of some pool
+        private final boolean parallel;
+        private final int from;
+        private final int to;
+
+        JoinTask(final WindowGrid grid,
+                 final PointSet points,
+                 final WindowPointConsumer consumer,
+                 final boolean parallel,
+                 final int from,
+                 final int to) {
+            this.grid = grid;
+            this.points = points;
+            this.consumer = consumer;
+            this.parallel = parallel;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= CHUNK_SIZE || !parallel) {
+                grid.join(points, consumer, from, to);
+                return;
+            }
+
+            final int middle = (from + to) >>> 1;
+            invokeAll(new JoinTask(grid, points, consumer, true, from, middle), new JoinTask(grid, points, consumer, true, middle, to));
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.satanja.layeredrangetree;
+
+import java.util.Arrays;
+
+/**
+ * The closed box {@code [min[d], max[d]]} over every dimension {@code d}, the generalization of a window to points
+ * with any number of coordinates. The arrays are copied.
+ */
+public class Box {
+
+    private final double[] min;
+    private final double[] max;
+
+    public Box(final double[] min, final double[] max) {
+        if (min.length != max.length) {
+            throw new IllegalArgumentException("Expected " + min.length + " upper bounds but got " + max.length);
+        }
+        this.min = min.clone();
+        this.max = max.clone();
+    }
+
+    public int dimensions() {
+        return min.length;
+    }
+
+    public double getMin(final int dimension) {
+        return min[dimension];
+    }
+
+    public double getMax(final int dimension) {
+        return max[dimension];
+    }
+
+    public boolean contains(final double[] point) {
+        for (int dimension = 0; dimension < min.length; dimension++) {
+            if (point[dimension] < min[dimension] || point[dimension] > max[dimension]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+        if (!(other instanceof Box)) {
+            return false;
+        }
+        final Box box = (Box) other;
+        return Arrays.equals(min, box.min) && Arrays.equals(max, box.max);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(min) + Arrays.hashCode(max);
+    }
+
+    @Override
+    public String toString() {
+        return "Box(min=" + Arrays.toString(min) + ", max=" + Arrays.toString(max) + ")";
+    }
+}
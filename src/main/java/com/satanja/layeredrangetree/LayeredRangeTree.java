@@ -0,0 +1,236 @@
+package com.satanja.layeredrangetree;
+
+import com.satanja.rangetree.FlatRangeTree;
+import com.satanja.rangetree.IdConsumer;
+import com.satanja.rangetree.PointSet;
+import com.satanja.rangetree.Window;
+import com.satanja.util.SortUtils;
+
+/**
+ * Layered range tree over points with two or more coordinates. The tree on the first coordinate holds, for every node,
+ * an associated tree on the second coordinate over the points below that node, which in turn holds trees on the third
+ * coordinate, and so on. The last two coordinates are answered by a {@link FlatRangeTree}, so fractional cascading
+ * saves the binary searches of the last level and a search takes O(log^(d-1) n + k) for d dimensions. The trees take
+ * O(n log^(d-1) n) memory.
+ * <p>
+ * Nodes with at most {@link #LEAF_SIZE} points have no associated structure, their points are checked one by one,
+ * which takes a constant factor off the memory and is faster than descending into tiny trees.
+ * <p>
+ * Immutable once constructed, queries from several threads are safe.
+ */
+public class LayeredRangeTree {
+
+    static final int LEAF_SIZE = 64;
+
+    private final MultiPointSet points;
+    private final Structure root;
+
+    public LayeredRangeTree(final MultiPointSet points) {
+        if (points.dimensions() < 2) {
+            throw new IllegalArgumentException("Expected at least 2 dimensions but got " + points.dimensions());
+        }
+        this.points = points;
+
+        if (points.dimensions() == 2) {
+            final int[] ids = new int[points.size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = i;
+            }
+            this.root = new Plane(points, ids);
+        } else {
+            this.root = new Layer(points, 0, SortUtils.sortIndexes(points.coordinates(0)));
+        }
+    }
+
+    // reports the id of every point in the box
+    public void searchIds(final Box box, final IdConsumer consumer) {
+        root.search(box, plane(box), consumer);
+    }
+
+    public int count(final Box box) {
+        return root.count(box, plane(box));
+    }
+
+    public int size() {
+        return points.size();
+    }
+
+    public int dimensions() {
+        return points.dimensions();
+    }
+
+    // the window on the last two coordinates, shared by every plane a search reaches
+    private Window plane(final Box box) {
+        final int dimensions = points.dimensions();
+        if (box.dimensions() != dimensions) {
+            throw new IllegalArgumentException("Expected a box with " + dimensions + " dimensions but got " + box.dimensions());
+        }
+        return new Window(box.getMin(dimensions - 2), box.getMax(dimensions - 2),
+                box.getMin(dimensions - 1), box.getMax(dimensions - 1));
+    }
+
+    // the structure over the given points on the coordinates from dimension on
+    private static Structure structure(final MultiPointSet points, final int dimension, final int[] ids) {
+        return dimension == points.dimensions() - 2 ? new Plane(points, ids) : new Layer(points, dimension, ids);
+    }
+
+    private interface Structure {
+        void search(Box box, Window plane, IdConsumer consumer);
+
+        int count(Box box, Window plane);
+    }
+
+    /*
+     * A tree on one coordinate. The tree is implicit over the points sorted on that coordinate: node 1 covers all of
+     * them, node i covering [start, end) has children 2i and 2i + 1 covering [start, middle) and [middle, end).
+     */
+    private static final class Layer implements Structure {
+
+        private final MultiPointSet points;
+        private final int dimension;
+
+        // the coordinates and ids of the points sorted on the coordinate
+        private final double[] keys;
+        private final int[] ids;
+
+        // per node, the structure on the next coordinates, null for leaves
+        private final Structure[] associated;
+
+        // ids are sorted on the coordinate
+        Layer(final MultiPointSet points, final int dimension, final int[] ids) {
+            this.points = points;
+            this.dimension = dimension;
+            this.ids = ids;
+            this.keys = new double[ids.length];
+            for (int i = 0; i < ids.length; i++) {
+                keys[i] = points.get(ids[i], dimension);
+            }
+            this.associated = new Structure[lastNode(1, 0, ids.length) + 1];
+            construct(1, 0, ids.length);
+        }
+
+        private static int lastNode(final int node, final int start, final int end) {
+            if (end - start <= LEAF_SIZE) {
+                return node;
+            }
+            final int middle = (start + end) >>> 1;
+            return Math.max(lastNode(2 * node, start, middle), lastNode(2 * node + 1, middle, end));
+        }
+
+        private void construct(final int node, final int start, final int end) {
+            if (end - start <= LEAF_SIZE) {
+                return;
+            }
+
+            final double[] next = new double[end - start];
+            for (int i = start; i < end; i++) {
+                next[i - start] = points.get(ids[i], dimension + 1);
+            }
+            final int[] order = SortUtils.sortIndexes(next);
+            final int[] nextIds = new int[order.length];
+            for (int i = 0; i < order.length; i++) {
+                nextIds[i] = ids[start + order[i]];
+            }
+            associated[node] = structure(points, dimension + 1, nextIds);
+
+            final int middle = (start + end) >>> 1;
+            construct(2 * node, start, middle);
+            construct(2 * node + 1, middle, end);
+        }
+
+        @Override
+        public void search(final Box box, final Window plane, final IdConsumer consumer) {
+            final int from = SortUtils.lowerBound(keys, 0, keys.length, box.getMin(dimension));
+            final int to = SortUtils.upperBound(keys, 0, keys.length, box.getMax(dimension));
+            if (from < to) {
+                search(1, 0, ids.length, from, to, box, plane, consumer);
+            }
+        }
+
+        private void search(final int node, final int start, final int end, final int from, final int to,
+                            final Box box, final Window plane, final IdConsumer consumer) {
+            if (end - start <= LEAF_SIZE) {
+                for (int i = Math.max(start, from); i < Math.min(end, to); i++) {
+                    if (points.contains(box, ids[i], dimension + 1)) {
+                        consumer.accept(ids[i]);
+                    }
+                }
+                return;
+            }
+            if (from <= start && end <= to) {
+                associated[node].search(box, plane, consumer);
+                return;
+            }
+
+            final int middle = (start + end) >>> 1;
+            if (from < middle) {
+                search(2 * node, start, middle, from, to, box, plane, consumer);
+            }
+            if (to > middle) {
+                search(2 * node + 1, middle, end, from, to, box, plane, consumer);
+            }
+        }
+
+        @Override
+        public int count(final Box box, final Window plane) {
+            final int from = SortUtils.lowerBound(keys, 0, keys.length, box.getMin(dimension));
+            final int to = SortUtils.upperBound(keys, 0, keys.length, box.getMax(dimension));
+            return from < to ? count(1, 0, ids.length, from, to, box, plane) : 0;
+        }
+
+        private int count(final int node, final int start, final int end, final int from, final int to,
+                          final Box box, final Window plane) {
+            if (end - start <= LEAF_SIZE) {
+                int count = 0;
+                for (int i = Math.max(start, from); i < Math.min(end, to); i++) {
+                    if (points.contains(box, ids[i], dimension + 1)) {
+                        count++;
+                    }
+                }
+                return count;
+            }
+            if (from <= start && end <= to) {
+                return associated[node].count(box, plane);
+            }
+
+            final int middle = (start + end) >>> 1;
+            int count = 0;
+            if (from < middle) {
+                count += count(2 * node, start, middle, from, to, box, plane);
+            }
+            if (to > middle) {
+                count += count(2 * node + 1, middle, end, from, to, box, plane);
+            }
+            return count;
+        }
+    }
+
+    // the last two coordinates, the flat tree reports positions in ids
+    private static final class Plane implements Structure {
+
+        private final FlatRangeTree tree;
+        private final int[] ids;
+
+        Plane(final MultiPointSet points, final int[] ids) {
+            final int x = points.dimensions() - 2;
+            final double[] xs = new double[ids.length];
+            final double[] ys = new double[ids.length];
+            for (int i = 0; i < ids.length; i++) {
+                xs[i] = points.get(ids[i], x);
+                ys[i] = points.get(ids[i], x + 1);
+            }
+            this.tree = new FlatRangeTree(new PointSet(xs, ys));
+            this.ids = ids;
+        }
+
+        @Override
+        public void search(final Box box, final Window plane, final IdConsumer consumer) {
+            tree.searchIds(plane, position -> consumer.accept(ids[position]));
+        }
+
+        @Override
+        public int count(final Box box, final Window plane) {
+            return tree.count(plane);
+        }
+    }
+}
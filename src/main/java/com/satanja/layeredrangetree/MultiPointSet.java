@@ -0,0 +1,64 @@
+package com.satanja.layeredrangetree;
+
+/**
+ * Struct-of-arrays storage of points with any number of coordinates: the point with id {@code i} has coordinate
+ * {@code coordinates[d][i]} in dimension {@code d}. The arrays are not copied and must not be modified after
+ * construction.
+ */
+public class MultiPointSet {
+
+    private final double[][] coordinates;
+    private final int size;
+
+    // one array per dimension, all of the same length
+    public MultiPointSet(final double[]... coordinates) {
+        if (coordinates.length == 0) {
+            throw new IllegalArgumentException("Expected at least one dimension");
+        }
+        this.size = coordinates[0].length;
+        for (int dimension = 1; dimension < coordinates.length; dimension++) {
+            if (coordinates[dimension].length != size) {
+                throw new IllegalArgumentException("Expected " + size + " coordinates in dimension " + dimension
+                        + " but got " + coordinates[dimension].length);
+            }
+        }
+        this.coordinates = coordinates;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int dimensions() {
+        return coordinates.length;
+    }
+
+    public double get(final int id, final int dimension) {
+        return coordinates[dimension][id];
+    }
+
+    // a copy of the coordinates of one point
+    public double[] point(final int id) {
+        final double[] point = new double[coordinates.length];
+        for (int dimension = 0; dimension < point.length; dimension++) {
+            point[dimension] = coordinates[dimension][id];
+        }
+        return point;
+    }
+
+    // the array itself, not a copy
+    public double[] coordinates(final int dimension) {
+        return coordinates[dimension];
+    }
+
+    // whether the point lies in the box on the dimensions from first on
+    boolean contains(final Box box, final int id, final int first) {
+        for (int dimension = first; dimension < coordinates.length; dimension++) {
+            final double value = coordinates[dimension][id];
+            if (value < box.getMin(dimension) || value > box.getMax(dimension)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,115 @@
+package com.satanja.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrent histogram of durations in nanoseconds with the bucket layout of an HDR histogram: values below
+ * {@code SUB_BUCKETS} get a bucket each, above that every power of two is split into {@code SUB_BUCKETS} equal buckets.
+ * A reported percentile is the upper bound of its bucket, so it overestimates the true value by less than
+ * {@code 1 / SUB_BUCKETS}. Every bucket is a {@link LongAdder}, so threads that record at once do not contend.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    // the exact buckets, plus SUB_BUCKETS for every power of two from SUB_BUCKETS up to Long.MAX_VALUE
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final LongAdder[] counts = new LongAdder[BUCKETS];
+
+    public LatencyHistogram() {
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            counts[bucket] = new LongAdder();
+        }
+    }
+
+    // negative durations, which a clock that is adjusted may produce, are recorded as zero
+    public void record(final long nanos) {
+        counts[bucket(Math.max(0, nanos))].increment();
+    }
+
+    public void reset() {
+        for (final LongAdder count : counts) {
+            count.reset();
+        }
+    }
+
+    // the counts are read one bucket at a time, values recorded meanwhile may be missing
+    public Snapshot snapshot() {
+        final long[] snapshot = new long[BUCKETS];
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            snapshot[bucket] = counts[bucket].sum();
+        }
+        return new Snapshot(snapshot);
+    }
+
+    static int bucket(final long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+
+        final int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        final int shift = magnitude - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    // the largest value that falls in the bucket
+    static long upperBound(final int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+
+        final int shift = bucket / SUB_BUCKETS - 1;
+        final long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lower + (1L << shift) - 1;
+    }
+
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+
+        private Snapshot(final long[] counts) {
+            this.counts = counts;
+            long count = 0;
+            for (final long bucketCount : counts) {
+                count += bucketCount;
+            }
+            this.count = count;
+        }
+
+        public long count() {
+            return count;
+        }
+
+        // the smallest bucket bound that at least the fraction of the values does not exceed, 0 if nothing was recorded
+        public long percentile(final double fraction) {
+            if (fraction < 0 || fraction > 1) {
+                throw new IllegalArgumentException("Expected a fraction in [0, 1] but got " + fraction);
+            }
+            if (count == 0) {
+                return 0;
+            }
+
+            final long rank = Math.max(1, (long) Math.ceil(fraction * count));
+            long seen = 0;
+            for (int bucket = 0; bucket < counts.length; bucket++) {
+                seen += counts[bucket];
+                if (seen >= rank) {
+                    return upperBound(bucket);
+                }
+            }
+            return upperBound(counts.length - 1);
+        }
+
+        public long max() {
+            return percentile(1);
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + count + " p50=" + percentile(0.5) + "ns p90=" + percentile(0.9) + "ns p99=" + percentile(0.99)
+                    + "ns p999=" + percentile(0.999) + "ns max=" + max() + "ns";
+        }
+    }
+}
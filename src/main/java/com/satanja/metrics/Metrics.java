@@ -0,0 +1,44 @@
+package com.satanja.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Process-wide counters of the instrumented operations, off unless the JVM is started with
+ * {@code -Drangetree.metrics=true}. {@link #ENABLED} is a static final field, so once the JIT compiles an instrumented
+ * method it folds the checks on it away, and with them the timing calls and the local counts they would record. A
+ * disabled build pays nothing on the hot paths, which is also why the switch cannot be flipped at runtime.
+ */
+public final class Metrics {
+
+    public static final boolean ENABLED = Boolean.getBoolean("rangetree.metrics");
+
+    public static final OperationMetrics RANGE_TREE_BUILD = new OperationMetrics("RangeTree.<init>");
+    public static final OperationMetrics RANGE_TREE_SEARCH = new OperationMetrics("RangeTree.search");
+    public static final OperationMetrics RANGE_TREE_COUNT = new OperationMetrics("RangeTree.count");
+    public static final OperationMetrics RANGE_TREE_RADIUS = new OperationMetrics("RangeTree.searchRadius");
+    public static final OperationMetrics RANGE_TREE_NEAREST = new OperationMetrics("RangeTree.nearest");
+    public static final OperationMetrics GRID_RANGE_BUILD = new OperationMetrics("GridRange.<init>");
+    public static final OperationMetrics GRID_RANGE_SEARCH = new OperationMetrics("GridRange.search");
+
+    private static final List<OperationMetrics> ALL = List.of(RANGE_TREE_BUILD, RANGE_TREE_SEARCH, RANGE_TREE_COUNT,
+            RANGE_TREE_RADIUS, RANGE_TREE_NEAREST, GRID_RANGE_BUILD, GRID_RANGE_SEARCH);
+
+    private Metrics() {
+    }
+
+    // one snapshot per operation, all zero while the metrics are disabled
+    public static List<OperationMetrics.Snapshot> snapshot() {
+        final List<OperationMetrics.Snapshot> snapshots = new ArrayList<>();
+        for (final OperationMetrics metrics : ALL) {
+            snapshots.add(metrics.snapshot());
+        }
+        return snapshots;
+    }
+
+    public static void reset() {
+        for (final OperationMetrics metrics : ALL) {
+            metrics.reset();
+        }
+    }
+}
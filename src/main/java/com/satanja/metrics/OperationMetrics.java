@@ -0,0 +1,136 @@
+package com.satanja.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of one operation of one index, summed over all calls. A call is recorded once, after it finished, from
+ * counts the operation kept in local variables, so the counters cost a handful of {@link LongAdder} increments per call
+ * however much work the call did.
+ * <p>
+ * Scanned points are the points whose coordinates were looked at or that were reported without looking, returned points
+ * the ones that were reported. A construction scans and returns every point it indexes.
+ */
+public class OperationMetrics {
+
+    private final String name;
+
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder nodesVisited = new LongAdder();
+    private final LongAdder subtreesReported = new LongAdder();
+    private final LongAdder cellsTouched = new LongAdder();
+    private final LongAdder pointsScanned = new LongAdder();
+    private final LongAdder pointsReturned = new LongAdder();
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    public OperationMetrics(final String name) {
+        this.name = name;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public void record(final long nanos,
+                       final int nodesVisited,
+                       final int subtreesReported,
+                       final int cellsTouched,
+                       final long pointsScanned,
+                       final long pointsReturned) {
+        calls.increment();
+        this.nodesVisited.add(nodesVisited);
+        this.subtreesReported.add(subtreesReported);
+        this.cellsTouched.add(cellsTouched);
+        this.pointsScanned.add(pointsScanned);
+        this.pointsReturned.add(pointsReturned);
+        latency.record(nanos);
+    }
+
+    public void reset() {
+        calls.reset();
+        nodesVisited.reset();
+        subtreesReported.reset();
+        cellsTouched.reset();
+        pointsScanned.reset();
+        pointsReturned.reset();
+        latency.reset();
+    }
+
+    // the counters are read one at a time, a call recorded meanwhile may be counted in some of them only
+    public Snapshot snapshot() {
+        return new Snapshot(name, calls.sum(), nodesVisited.sum(), subtreesReported.sum(), cellsTouched.sum(),
+                pointsScanned.sum(), pointsReturned.sum(), latency.snapshot());
+    }
+
+    public static final class Snapshot {
+        private final String name;
+        private final long calls;
+        private final long nodesVisited;
+        private final long subtreesReported;
+        private final long cellsTouched;
+        private final long pointsScanned;
+        private final long pointsReturned;
+        private final LatencyHistogram.Snapshot latency;
+
+        private Snapshot(final String name,
+                         final long calls,
+                         final long nodesVisited,
+                         final long subtreesReported,
+                         final long cellsTouched,
+                         final long pointsScanned,
+                         final long pointsReturned,
+                         final LatencyHistogram.Snapshot latency) {
+            this.name = name;
+            this.calls = calls;
+            this.nodesVisited = nodesVisited;
+            this.subtreesReported = subtreesReported;
+            this.cellsTouched = cellsTouched;
+            this.pointsScanned = pointsScanned;
+            this.pointsReturned = pointsReturned;
+            this.latency = latency;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public long calls() {
+            return calls;
+        }
+
+        public long nodesVisited() {
+            return nodesVisited;
+        }
+
+        public long subtreesReported() {
+            return subtreesReported;
+        }
+
+        public long cellsTouched() {
+            return cellsTouched;
+        }
+
+        public long pointsScanned() {
+            return pointsScanned;
+        }
+
+        public long pointsReturned() {
+            return pointsReturned;
+        }
+
+        // the fraction of the scanned points that were not returned, 0 if nothing was scanned
+        public double wastedWorkRatio() {
+            return pointsScanned == 0 ? 0 : (double) (pointsScanned - pointsReturned) / pointsScanned;
+        }
+
+        public LatencyHistogram.Snapshot latency() {
+            return latency;
+        }
+
+        @Override
+        public String toString() {
+            return name + ": calls=" + calls + " nodesVisited=" + nodesVisited + " subtreesReported=" + subtreesReported
+                    + " cellsTouched=" + cellsTouched + " pointsScanned=" + pointsScanned + " pointsReturned=" + pointsReturned
+                    + " wastedWorkRatio=" + wastedWorkRatio() + " latency[" + latency + "]";
+        }
+    }
+}
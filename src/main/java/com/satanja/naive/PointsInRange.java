@@ -1,28 +1,40 @@
 package com.satanja.naive;
 
+import com.satanja.rangetree.IdConsumer;
+import com.satanja.rangetree.IdIndex;
 import com.satanja.rangetree.Point;
+import com.satanja.rangetree.PointConsumer;
+import com.satanja.rangetree.PointSet;
+import com.satanja.rangetree.SpatialIndex;
 import com.satanja.rangetree.Window;
 
-import java.util.ArrayList;
 import java.util.List;
 
-public class PointsInRange {
+public class PointsInRange implements SpatialIndex, IdIndex {
 
-    final List<Point> points;
+    final PointSet points;
 
     public PointsInRange(final List<Point> points) {
+        this(PointSet.of(points));
+    }
+
+    public PointsInRange(final PointSet points) {
         this.points = points;
     }
 
-    public List<Point> search(final Window window) {
-        final List<Point> result = new ArrayList<>();
-        for (final Point point : points) {
-            if (window.getXMin() <= point.getX() && point.getX() <= window.getXMax() &&
-                    window.getYMin() <= point.getY() && point.getY() <= window.getYMax()) {
-                result.add(point);
+    @Override
+    public void search(final Window window, final PointConsumer consumer) {
+        searchIds(window, id -> consumer.accept(points.get(id)));
+    }
+
+    @Override
+    public void searchIds(final Window window, final IdConsumer consumer) {
+        for (int id = 0; id < points.size(); id++) {
+            final double x = points.getX(id);
+            final double y = points.getY(id);
+            if (window.getXMin() <= x && x <= window.getXMax() && window.getYMin() <= y && y <= window.getYMax()) {
+                consumer.accept(id);
             }
         }
-
-        return result;
     }
 }
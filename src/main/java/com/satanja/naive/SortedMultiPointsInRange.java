@@ -0,0 +1,68 @@
+package com.satanja.naive;
+
+import com.satanja.layeredrangetree.Box;
+import com.satanja.layeredrangetree.MultiPointSet;
+import com.satanja.rangetree.IdConsumer;
+import com.satanja.util.SortUtils;
+
+// the counterpart of SortedPointsInRange for points with any number of coordinates, scans the slab of the box on the
+// first coordinate
+public class SortedMultiPointsInRange {
+
+    private final int dimensions;
+
+    // the coordinates sorted on the first one, point after point, and the id of the point at every position
+    private final double[] firsts;
+    private final double[] coordinates;
+    private final int[] ids;
+
+    public SortedMultiPointsInRange(final MultiPointSet points) {
+        this.dimensions = points.dimensions();
+        this.ids = SortUtils.sortIndexes(points.coordinates(0));
+        this.firsts = new double[ids.length];
+        this.coordinates = new double[ids.length * dimensions];
+        for (int i = 0; i < ids.length; i++) {
+            firsts[i] = points.get(ids[i], 0);
+            for (int dimension = 0; dimension < dimensions; dimension++) {
+                coordinates[i * dimensions + dimension] = points.get(ids[i], dimension);
+            }
+        }
+    }
+
+    public void searchIds(final Box box, final IdConsumer consumer) {
+        checkDimensions(box);
+        for (int i = SortUtils.lowerBound(firsts, 0, firsts.length, box.getMin(0)); i < firsts.length && firsts[i] <= box.getMax(0); i++) {
+            if (contains(box, i)) {
+                consumer.accept(ids[i]);
+            }
+        }
+    }
+
+    public int count(final Box box) {
+        checkDimensions(box);
+        int count = 0;
+        for (int i = SortUtils.lowerBound(firsts, 0, firsts.length, box.getMin(0)); i < firsts.length && firsts[i] <= box.getMax(0); i++) {
+            if (contains(box, i)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private boolean contains(final Box box, final int position) {
+        final int offset = position * dimensions;
+        for (int dimension = 1; dimension < dimensions; dimension++) {
+            final double value = coordinates[offset + dimension];
+            if (value < box.getMin(dimension) || value > box.getMax(dimension)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void checkDimensions(final Box box) {
+        if (box.dimensions() != dimensions) {
+            throw new IllegalArgumentException("Expected a box with " + dimensions + " dimensions but got " + box.dimensions());
+        }
+    }
+}
@@ -1,36 +1,138 @@
 package com.satanja.naive;
 
+import com.satanja.rangetree.IdConsumer;
+import com.satanja.rangetree.IdIndex;
+import com.satanja.rangetree.PairConsumer;
 import com.satanja.rangetree.Point;
+import com.satanja.rangetree.PointConsumer;
+import com.satanja.rangetree.PointSet;
+import com.satanja.rangetree.SpatialIndex;
 import com.satanja.rangetree.Window;
+import com.satanja.util.SortUtils;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
-public class SortedPointsInRange {
+public class SortedPointsInRange implements SpatialIndex, IdIndex {
 
-    final List<Point> points;
+    // positions a join task sweeps on its own
+    private static final int JOIN_STRIPE_SIZE = 1024;
+
+    final PointSet points;
+
+    // coordinates sorted on x and the id of the point at every position
+    final double[] xs;
+    final double[] ys;
+    final int[] ids;
 
     public SortedPointsInRange(final List<Point> points) {
-        points.sort(Comparator.comparingDouble(Point::getX));
+        this(PointSet.of(points));
+    }
+
+    public SortedPointsInRange(final PointSet points) {
         this.points = points;
+
+        final double[] unsortedXs = new double[points.size()];
+        for (int i = 0; i < unsortedXs.length; i++) {
+            unsortedXs[i] = points.getX(i);
+        }
+
+        this.ids = SortUtils.sortIndexes(unsortedXs);
+        this.xs = new double[ids.length];
+        this.ys = new double[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            xs[i] = points.getX(ids[i]);
+            ys[i] = points.getY(ids[i]);
+        }
+    }
+
+    @Override
+    public void search(final Window window, final PointConsumer consumer) {
+        searchIds(window, id -> consumer.accept(points.get(id)));
+    }
+
+    @Override
+    public void searchIds(final Window window, final IdConsumer consumer) {
+        for (int i = SortUtils.lowerBound(xs, 0, xs.length, window.getXMin()); i < xs.length && xs[i] <= window.getXMax(); i++) {
+            if (window.getYMin() <= ys[i] && ys[i] <= window.getYMax()) {
+                consumer.accept(ids[i]);
+            }
+        }
+    }
+
+    // only the x-slice of the circle is scanned
+    @Override
+    public void searchRadius(final Point center, final double radius, final PointConsumer consumer) {
+        final double squaredRadius = radius * radius;
+        for (int i = SortUtils.lowerBound(xs, 0, xs.length, center.getX() - radius); i < xs.length && xs[i] <= center.getX() + radius; i++) {
+            final double dx = xs[i] - center.getX();
+            final double dy = ys[i] - center.getY();
+            if (dx * dx + dy * dy <= squaredRadius) {
+                consumer.accept(points.get(ids[i]));
+            }
+        }
+    }
+
+    // reports the ids of every pair of points at most radius apart once, the smaller x first
+    public void selfJoin(final double radius, final PairConsumer consumer) {
+        selfJoin(radius, consumer, null);
+    }
+
+    /*
+     * Plane sweep over the x-order: the partners of a point that come after it lie in the following positions up to
+     * x + radius. A stripe of positions owns the pairs that start in it, so the stripes are swept in parallel and the
+     * consumer has to be thread-safe when a pool is given.
+     */
+    public void selfJoin(final double radius, final PairConsumer consumer, final ForkJoinPool pool) {
+        if (radius < 0) {
+            throw new IllegalArgumentException("Expected a non-negative radius but got " + radius);
+        }
+
+        if (pool == null) {
+            joinStripe(radius, consumer, 0, xs.length);
+        } else {
+            pool.invoke(new JoinTask(radius, consumer, 0, xs.length));
+        }
+    }
+
+    private void joinStripe(final double radius, final PairConsumer consumer, final int from, final int to) {
+        final double squaredRadius = radius * radius;
+        for (int i = from; i < to; i++) {
+            final double x = xs[i];
+            final double y = ys[i];
+            for (int j = i + 1; j < xs.length && xs[j] - x <= radius; j++) {
+                final double dx = xs[j] - x;
+                final double dy = ys[j] - y;
+                if (dx * dx + dy * dy <= squaredRadius) {
+                    consumer.accept(ids[i], ids[j]);
+                }
+            }
+        }
     }
 
-    public List<Point> search(final Window window) {
-        final List<Point> result = new ArrayList<>();
-        final int index = Collections.binarySearch(points, new Point(window.getXMin(), 0), Comparator.comparingDouble(Point::getX));
-        final int start = index < 0 ? -1 * (index + 1) : index;
-        for (int i = start; i < points.size(); i++) {
-            final Point point = points.get(i);
+    private class JoinTask extends RecursiveAction {
+        private final double radius;
+        private final PairConsumer consumer;
+        private final int from;
+        private final int to;
+
+        JoinTask(final double radius, final PairConsumer consumer, final int from, final int to) {
+            this.radius = radius;
+            this.consumer = consumer;
+            this.from = from;
+            this.to = to;
+        }
 
-            if (window.getXMin() <= point.getX() && point.getX() <= window.getXMax() &&
-                    window.getYMin() <= point.getY() && point.getY() <= window.getYMax()) {
-                result.add(point);
-            } else if (point.getX() > window.getXMax()) {
-                break;
+        @Override
+        protected void compute() {
+            if (to - from <= JOIN_STRIPE_SIZE) {
+                joinStripe(radius, consumer, from, to);
+                return;
             }
+
+            final int middle = (from + to) >>> 1;
+            invokeAll(new JoinTask(radius, consumer, from, middle), new JoinTask(radius, consumer, middle, to));
         }
-        return result;
     }
 }
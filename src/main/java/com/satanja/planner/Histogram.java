@@ -0,0 +1,127 @@
+package com.satanja.planner;
+
+import com.satanja.rangetree.PointSet;
+import com.satanja.rangetree.Window;
+import com.satanja.util.SortUtils;
+
+import java.util.Arrays;
+
+/*
+ * Equi-width 2D histogram over the bounding box of the points, stored as a summed-area table. Points are assumed to be
+ * spread evenly within a bin, so the number of points in any rectangle is estimated in constant time from the
+ * cumulative counts at its four corners. Slabs along x are estimated from equi-depth quantiles of a sample instead,
+ * which stay accurate on skewed x coordinates.
+ */
+class Histogram {
+
+    private static final int QUANTILES = 256;
+    private static final int SAMPLE_SIZE = 4096;
+
+    private final int size;
+    private final int bins;
+    private final double minX;
+    private final double minY;
+    private final double binWidth;
+    private final double binHeight;
+
+    // cumulative[i][j] is the number of points in the bins (i', j') with i' < i and j' < j
+    private final long[][] cumulative;
+
+    // xQuantiles[k] is the x coordinate of rank k / QUANTILES among the sampled points
+    private final double[] xQuantiles;
+
+    Histogram(final PointSet points, final int bins) {
+        this.size = points.size();
+        this.bins = bins;
+
+        final Window bounds = points.bounds();
+
+        // a degenerate axis gets a tiny extent, so a point on it is counted by windows that contain it
+        this.minX = bounds.getXMin();
+        this.minY = bounds.getYMin();
+        this.binWidth = bounds.getXMax() > minX ? (bounds.getXMax() - minX) / bins : Math.ulp(minX) + Double.MIN_NORMAL;
+        this.binHeight = bounds.getYMax() > minY ? (bounds.getYMax() - minY) / bins : Math.ulp(minY) + Double.MIN_NORMAL;
+
+        this.cumulative = new long[bins + 1][bins + 1];
+        for (int id = 0; id < size; id++) {
+            cumulative[bin(points.getX(id), minX, binWidth) + 1][bin(points.getY(id), minY, binHeight) + 1]++;
+        }
+        for (int i = 1; i <= bins; i++) {
+            for (int j = 1; j <= bins; j++) {
+                cumulative[i][j] += cumulative[i - 1][j] + cumulative[i][j - 1] - cumulative[i - 1][j - 1];
+            }
+        }
+
+        // a strided sample, as in GridTuning
+        final int samples = Math.min(size, SAMPLE_SIZE);
+        final double[] sample = new double[samples];
+        for (int k = 0; k < samples; k++) {
+            sample[k] = points.getX((int) ((long) k * size / samples));
+        }
+        Arrays.sort(sample);
+        this.xQuantiles = new double[samples > 0 ? QUANTILES + 1 : 0];
+        for (int k = 0; k < xQuantiles.length; k++) {
+            xQuantiles[k] = sample[(int) ((long) k * (samples - 1) / QUANTILES)];
+        }
+    }
+
+    // estimated number of points with xMin <= x <= xMax
+    double estimateSlab(final double xMin, final double xMax) {
+        if (xMin > xMax || size == 0) {
+            return 0;
+        }
+        return size * (rank(xMax) - rank(xMin));
+    }
+
+    // estimated number of points inside the window
+    double estimate(final Window window) {
+        return estimate(window.getXMin(), window.getXMax(), window.getYMin(), window.getYMax());
+    }
+
+    double estimate(final double xMin, final double xMax, final double yMin, final double yMax) {
+        if (xMin > xMax || yMin > yMax) {
+            return 0;
+        }
+
+        final double x0 = position(xMin, minX, binWidth);
+        final double x1 = position(xMax, minX, binWidth);
+        final double y0 = position(yMin, minY, binHeight);
+        final double y1 = position(yMax, minY, binHeight);
+        return Math.max(0, below(x1, y1) - below(x0, y1) - below(x1, y0) + below(x0, y0));
+    }
+
+    // the interpolated number of points below the fractional bin position (x, y) on both axes
+    private double below(final double x, final double y) {
+        final int i = (int) Math.min(bins - 1, x);
+        final int j = (int) Math.min(bins - 1, y);
+        final double fx = x - i;
+        final double fy = y - j;
+
+        final long base = cumulative[i][j];
+        final long right = cumulative[i + 1][j];
+        final long up = cumulative[i][j + 1];
+        final long bin = cumulative[i + 1][j + 1] - right - up + base;
+        return base + fx * (right - base) + fy * (up - base) + fx * fy * bin;
+    }
+
+    // interpolated fraction of the points with an x coordinate below the value
+    private double rank(final double x) {
+        final int lo = SortUtils.upperBound(xQuantiles, 0, xQuantiles.length, x);
+        if (lo == 0) {
+            return 0;
+        }
+        if (lo == xQuantiles.length) {
+            return 1;
+        }
+        return (lo - 1 + (x - xQuantiles[lo - 1]) / (xQuantiles[lo] - xQuantiles[lo - 1])) / QUANTILES;
+    }
+
+    // fractional bin position of the coordinate, clamped to [0, bins]
+    private double position(final double value, final double min, final double width) {
+        return Math.max(0, Math.min(bins, (value - min) / width));
+    }
+
+    private int bin(final double value, final double min, final double width) {
+        return (int) Math.max(0, Math.min(bins - 1, Math.floor((value - min) / width)));
+    }
+}
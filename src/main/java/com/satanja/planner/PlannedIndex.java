@@ -0,0 +1,222 @@
+package com.satanja.planner;
+
+import com.satanja.grid.PackedGridRange;
+import com.satanja.naive.SortedPointsInRange;
+import com.satanja.rangetree.FlatRangeTree;
+import com.satanja.rangetree.IdConsumer;
+import com.satanja.rangetree.IdIndex;
+import com.satanja.rangetree.PointConsumer;
+import com.satanja.rangetree.PointSet;
+import com.satanja.rangetree.SpatialIndex;
+import com.satanja.rangetree.Window;
+
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Facade over several indexes of the same points that sends every query to the engine it expects to be cheapest. The
+ * sorted scan is always built, the grid and the range tree are added in that order as long as the memory budget
+ * allows. The plan is based on statistics that fit in the cache: x quantiles estimate the points in the x-slab of the
+ * window, which the sorted scan checks, and a 2D histogram the points in the window and in the border rows of the grid.
+ * <p>
+ * The grid is a {@link PackedGridRange} and the range tree a {@link FlatRangeTree}, the static and compact variants of
+ * {@link com.satanja.grid.GridRange} and {@link com.satanja.rangetree.RangeTree}. Immutable once constructed, queries
+ * from several threads are safe and the routing counters are exact.
+ */
+public class PlannedIndex implements SpatialIndex, IdIndex {
+
+    public enum Engine {
+        SORTED_SCAN,
+        GRID,
+        RANGE_TREE
+    }
+
+    private static final int HISTOGRAM_BINS = 64;
+
+    /*
+     * Cost constants in nanoseconds, measured single-threaded on uniform points with the benchmarks of this project:
+     * checking one coordinate pair, reporting a hit, visiting a grid cell and descending one level of the range tree.
+     */
+    private static final double CHECK_COST = 1.0;
+    private static final double REPORT_COST = 1.5;
+    private static final double CELL_COST = 5.0;
+    private static final double LEVEL_COST = 15.0;
+
+    private final int size;
+    private final double levels;
+
+    private final SortedPointsInRange sortedScan;
+    private final PackedGridRange grid;
+    private final FlatRangeTree rangeTree;
+
+    private final Histogram histogram;
+
+    private final LongAdder[] routed = new LongAdder[Engine.values().length];
+
+    public PlannedIndex(final PointSet points) {
+        this(points, Long.MAX_VALUE);
+    }
+
+    // memoryBudget bounds the estimated bytes of the engines, the sorted scan is built even if it exceeds the budget
+    public PlannedIndex(final PointSet points, final long memoryBudget) {
+        this.size = points.size();
+        this.levels = Math.log(Math.max(2, size)) / Math.log(2);
+        this.sortedScan = new SortedPointsInRange(points);
+
+        long remaining = memoryBudget - estimateBytes(Engine.SORTED_SCAN, size);
+        final long gridBytes = estimateBytes(Engine.GRID, size);
+        if (gridBytes <= remaining) {
+            this.grid = PackedGridRange.adaptive(points, 0);
+            remaining -= gridBytes;
+        } else {
+            this.grid = null;
+        }
+        this.rangeTree = estimateBytes(Engine.RANGE_TREE, size) <= remaining ? new FlatRangeTree(points) : null;
+
+        this.histogram = new Histogram(points, HISTOGRAM_BINS);
+        for (int engine = 0; engine < routed.length; engine++) {
+            routed[engine] = new LongAdder();
+        }
+    }
+
+    // approximate heap size of an engine over size points, without the shared point set
+    public static long estimateBytes(final Engine engine, final int size) {
+        switch (engine) {
+            case SORTED_SCAN:
+                return 20L * size;
+            case GRID:
+                // coordinates and ids, plus the offsets of about one cell per 16 points
+                return 20L * size + size / 4;
+            case RANGE_TREE:
+                // sorted xs, plus y, id and bridge per point on every level
+                long levels = 1;
+                for (int nodeSize = size; nodeSize > 1; nodeSize = (nodeSize + 1) / 2) {
+                    levels++;
+                }
+                return 8L * size + 16L * levels * size;
+            default:
+                throw new IllegalArgumentException("Unknown engine " + engine);
+        }
+    }
+
+    public Set<Engine> engines() {
+        final Set<Engine> engines = EnumSet.of(Engine.SORTED_SCAN);
+        if (grid != null) {
+            engines.add(Engine.GRID);
+        }
+        if (rangeTree != null) {
+            engines.add(Engine.RANGE_TREE);
+        }
+        return engines;
+    }
+
+    // the number of queries sent to the engine so far
+    public long routedCount(final Engine engine) {
+        return routed[engine.ordinal()].sum();
+    }
+
+    public double estimateCount(final Window window) {
+        return histogram.estimate(window);
+    }
+
+    // the engine a search for the window goes to, without counting it as routed
+    public Engine plan(final Window window) {
+        return plan(window, true);
+    }
+
+    @Override
+    public void search(final Window window, final PointConsumer consumer) {
+        route(plan(window, true)).search(window, consumer);
+    }
+
+    @Override
+    public void searchIds(final Window window, final IdConsumer consumer) {
+        ((IdIndex) route(plan(window, true))).searchIds(window, consumer);
+    }
+
+    @Override
+    public int[] searchIds(final Window window) {
+        return ((IdIndex) route(plan(window, true))).searchIds(window);
+    }
+
+    @Override
+    public int count(final Window window) {
+        return route(plan(window, false)).count(window);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /*
+     * Estimated cost of every engine that is built, the cheapest one gets the query. A search reports every hit, a
+     * count of the grid or the range tree does not touch the points it can count as a whole.
+     */
+    private Engine plan(final Window window, final boolean report) {
+        final double estimate = histogram.estimate(window);
+        final double hits = report ? estimate * REPORT_COST : 0;
+
+        Engine best = Engine.SORTED_SCAN;
+        double bestCost = levels * CHECK_COST + histogram.estimateSlab(window.getXMin(), window.getXMax()) * CHECK_COST + hits;
+
+        if (grid != null) {
+            final double cost = gridCost(window, estimate) + hits;
+            if (cost < bestCost) {
+                best = Engine.GRID;
+                bestCost = cost;
+            }
+        }
+
+        if (rangeTree != null && 2 * levels * LEVEL_COST + hits < bestCost) {
+            best = Engine.RANGE_TREE;
+        }
+        return best;
+    }
+
+    /*
+     * Cells visited plus the points checked in the first and the last row of cells the window touches. The rows are
+     * assumed to be as dense as the window, so the estimate of the window is scaled instead of asking the histogram again.
+     */
+    private double gridCost(final Window window, final double estimate) {
+        final double cellWidth = grid.getCellWidth();
+        final double cellHeight = grid.getCellHeight();
+        final int subdivisions = grid.getSubdivisions();
+        final long firstI = cell(window.getXMin(), grid.getMinX(), cellWidth, subdivisions);
+        final long lastI = cell(window.getXMax(), grid.getMinX(), cellWidth, subdivisions);
+        final long firstJ = cell(window.getYMin(), grid.getMinY(), cellHeight, subdivisions);
+        final long lastJ = cell(window.getYMax(), grid.getMinY(), cellHeight, subdivisions);
+        if (firstI > lastI || firstJ > lastJ) {
+            return CELL_COST;
+        }
+
+        final double height = window.getYMax() - window.getYMin();
+        final double rows = Math.min(lastJ - firstJ + 1, 2) * cellHeight;
+        final double checked = height > rows ? estimate * rows / height : histogram.estimate(window.getXMin(), window.getXMax(),
+                grid.getMinY() + firstJ * cellHeight, grid.getMinY() + (lastJ + 1) * cellHeight);
+
+        // the border columns of the window are cut down by binary searches, every other column is one run
+        return (lastI - firstI + 1) * Math.min(lastJ - firstJ + 1, 3) * CELL_COST + checked * CHECK_COST;
+    }
+
+    // the index of the engine, counting the query as routed to it
+    private SpatialIndex route(final Engine engine) {
+        routed[engine.ordinal()].increment();
+        return engine(engine);
+    }
+
+    private SpatialIndex engine(final Engine engine) {
+        switch (engine) {
+            case GRID:
+                return grid;
+            case RANGE_TREE:
+                return rangeTree;
+            default:
+                return sortedScan;
+        }
+    }
+
+    private static long cell(final double value, final double min, final double width, final int subdivisions) {
+        return (long) Math.max(0, Math.min(subdivisions, Math.floor((value - min) / width)));
+    }
+}
@@ -0,0 +1,204 @@
+package com.satanja.rangetree;
+
+/*
+ * Queries on the implicit layout of FlatRangeTree: the sorted x coordinates, and per level the y coordinates, ids and
+ * bridges of the keys of all nodes on that level. Subclasses decide where the arrays live.
+ */
+abstract class AbstractFlatRangeTree implements SpatialIndex, IdIndex {
+
+    final int size;
+
+    AbstractFlatRangeTree(final int size) {
+        this.size = size;
+    }
+
+    // x coordinate of the point with the given x-rank
+    abstract double x(int rank);
+
+    abstract double y(int level, int position);
+
+    abstract int id(int level, int position);
+
+    // the number of keys in [start, position) of the node around position that belong to its left child
+    abstract int bridge(int level, int position);
+
+    abstract Point point(int id);
+
+    @Override
+    public void search(final Window window, final PointConsumer consumer) {
+        searchIds(window, id -> consumer.accept(point(id)));
+    }
+
+    @Override
+    public void searchIds(final Window window, final IdConsumer consumer) {
+        visitCanonicalSlices(window, (level, from, to) -> {
+            for (int i = from; i < to; i++) {
+                consumer.accept(id(level, i));
+            }
+        });
+    }
+
+    @Override
+    public int count(final Window window) {
+        final int[] count = new int[1];
+        visitCanonicalSlices(window, (level, from, to) -> count[0] += to - from);
+        return count[0];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /*
+     * Visits the slices [from, to) of the canonical nodes that hold the keys with yMin <= y <= yMax. Both bounds are
+     * found once on the root level and cascaded down through the bridges.
+     */
+    void visitCanonicalSlices(final Window window, final CanonicalSliceVisitor visitor) {
+        if (size == 0) {
+            return;
+        }
+
+        final int lo = firstAbove(true, window.getXMin(), true);
+        final int hi = firstAbove(true, window.getXMax(), false);
+        if (lo >= hi) {
+            return;
+        }
+
+        // find the split node, a node without keys in [yMin, yMax] has lower == upper and so do its descendants
+        int start = 0;
+        int end = size;
+        int level = 0;
+        int lower = firstAbove(false, window.getYMin(), true);
+        int upper = firstAbove(false, window.getYMax(), false);
+        while (lower < upper && end - start > 1) {
+            final int middle = middle(start, end);
+            if (hi <= middle) {
+                lower = leftPosition(level, start, end, middle, lower);
+                upper = leftPosition(level, start, end, middle, upper);
+                end = middle;
+            } else if (lo >= middle) {
+                lower = rightPosition(level, start, end, middle, lower);
+                upper = rightPosition(level, start, end, middle, upper);
+                start = middle;
+            } else {
+                break;
+            }
+            level++;
+        }
+
+        if (lower >= upper) {
+            return;
+        }
+
+        if (end - start == 1) {
+            visitor.visit(level, lower, upper);
+            return;
+        }
+
+        final int splitMiddle = middle(start, end);
+
+        // left branch
+        int leftStart = start;
+        int leftEnd = splitMiddle;
+        int leftLevel = level + 1;
+        int leftLower = leftPosition(level, start, end, splitMiddle, lower);
+        int leftUpper = leftPosition(level, start, end, splitMiddle, upper);
+        while (leftLower < leftUpper) {
+            if (lo <= leftStart) {
+                visitor.visit(leftLevel, leftLower, leftUpper);
+                break;
+            }
+            if (leftEnd - leftStart == 1) {
+                break;
+            }
+
+            final int middle = middle(leftStart, leftEnd);
+            if (lo < middle) {
+                visitor.visit(leftLevel + 1, rightPosition(leftLevel, leftStart, leftEnd, middle, leftLower),
+                        rightPosition(leftLevel, leftStart, leftEnd, middle, leftUpper));
+                leftLower = leftPosition(leftLevel, leftStart, leftEnd, middle, leftLower);
+                leftUpper = leftPosition(leftLevel, leftStart, leftEnd, middle, leftUpper);
+                leftEnd = middle;
+            } else {
+                leftLower = rightPosition(leftLevel, leftStart, leftEnd, middle, leftLower);
+                leftUpper = rightPosition(leftLevel, leftStart, leftEnd, middle, leftUpper);
+                leftStart = middle;
+            }
+            leftLevel++;
+        }
+
+        // right branch
+        int rightStart = splitMiddle;
+        int rightEnd = end;
+        int rightLevel = level + 1;
+        int rightLower = rightPosition(level, start, end, splitMiddle, lower);
+        int rightUpper = rightPosition(level, start, end, splitMiddle, upper);
+        while (rightLower < rightUpper) {
+            if (rightEnd <= hi) {
+                visitor.visit(rightLevel, rightLower, rightUpper);
+                break;
+            }
+            if (rightEnd - rightStart == 1) {
+                break;
+            }
+
+            final int middle = middle(rightStart, rightEnd);
+            if (hi > middle) {
+                visitor.visit(rightLevel + 1, leftPosition(rightLevel, rightStart, rightEnd, middle, rightLower),
+                        leftPosition(rightLevel, rightStart, rightEnd, middle, rightUpper));
+                rightLower = rightPosition(rightLevel, rightStart, rightEnd, middle, rightLower);
+                rightUpper = rightPosition(rightLevel, rightStart, rightEnd, middle, rightUpper);
+                rightStart = middle;
+            } else {
+                rightLower = leftPosition(rightLevel, rightStart, rightEnd, middle, rightLower);
+                rightUpper = leftPosition(rightLevel, rightStart, rightEnd, middle, rightUpper);
+                rightEnd = middle;
+            }
+            rightLevel++;
+        }
+    }
+
+    private int leftPosition(final int level, final int start, final int end, final int middle, final int position) {
+        return position == end ? middle : start + bridge(level, position);
+    }
+
+    private int rightPosition(final int level, final int start, final int end, final int middle, final int position) {
+        return position == end ? end : middle + (position - start - bridge(level, position));
+    }
+
+    // same median as RangeTree: the left child receives the first ceil(size / 2) points
+    static int middle(final int start, final int end) {
+        return start + (end - start + 1) / 2;
+    }
+
+    static int levels(final int size) {
+        int levels = 1;
+        int nodeSize = size;
+        while (nodeSize > 1) {
+            nodeSize = (nodeSize + 1) / 2;
+            levels++;
+        }
+        return levels;
+    }
+
+    // first position on x, or on the root level of y, with a key > bound, or with a key >= bound when orEqual is set
+    private int firstAbove(final boolean onX, final double bound, final boolean orEqual) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            final int middle = (lo + hi) >>> 1;
+            final double key = onX ? x(middle) : y(0, middle);
+            if (orEqual ? key < bound : key <= bound) {
+                lo = middle + 1;
+            } else {
+                hi = middle;
+            }
+        }
+        return lo;
+    }
+
+    @FunctionalInterface
+    interface CanonicalSliceVisitor {
+        void visit(int level, int from, int to);
+    }
+}
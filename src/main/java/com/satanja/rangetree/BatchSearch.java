@@ -0,0 +1,188 @@
+package com.satanja.rangetree;
+
+import com.satanja.util.SortUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/*
+ * Runs a batch of window queries in Hilbert order of the window centers, so consecutive queries touch the same part of
+ * the index and find it in cache. The sorted batch is split into chunks that are searched in parallel, every worker
+ * collects hits in one reused buffer and copies them into an exactly sized result. A join streams the hits instead.
+ */
+class BatchSearch {
+
+    private static final int HILBERT_ORDER = 16;
+    private static final int CHUNK_SIZE = 256;
+
+    static List<List<Point>> searchAll(final SpatialIndex index, final List<Window> windows, final ForkJoinPool pool) {
+        final int[] order = hilbertOrder(windows);
+
+        // every task only sets the results of its own windows, which does not change the structure of the list
+        final List<List<Point>> results = new ArrayList<>(Collections.nCopies(windows.size(), null));
+        final SearchTask task = new SearchTask(index, windows, order, results, pool != null, 0, order.length);
+        if (pool == null) {
+            task.compute();
+        } else {
+            pool.invoke(task);
+        }
+        return results;
+    }
+
+    static void join(final SpatialIndex index, final List<Window> windows, final WindowPointConsumer consumer, final ForkJoinPool pool) {
+        final JoinTask task = new JoinTask(index, windows, hilbertOrder(windows), consumer, pool != null, 0, windows.size());
+        if (pool == null) {
+            task.compute();
+        } else {
+            pool.invoke(task);
+        }
+    }
+
+    static int[] hilbertOrder(final List<Window> windows) {
+        double minX = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for (final Window window : windows) {
+            final double x = centerX(window);
+            final double y = centerY(window);
+            minX = Math.min(minX, x);
+            maxX = Math.max(maxX, x);
+            minY = Math.min(minY, y);
+            maxY = Math.max(maxY, y);
+        }
+
+        final int cells = 1 << HILBERT_ORDER;
+        final double scaleX = maxX > minX ? (cells - 1) / (maxX - minX) : 0;
+        final double scaleY = maxY > minY ? (cells - 1) / (maxY - minY) : 0;
+
+        final double[] keys = new double[windows.size()];
+        for (int i = 0; i < keys.length; i++) {
+            final Window window = windows.get(i);
+            final int x = (int) ((centerX(window) - minX) * scaleX);
+            final int y = (int) ((centerY(window) - minY) * scaleY);
+            keys[i] = hilbertIndex(x, y);
+        }
+        return SortUtils.sortIndexes(keys);
+    }
+
+    // position of (x, y) on the Hilbert curve through a 2^16 by 2^16 grid
+    static long hilbertIndex(int x, int y) {
+        final int n = 1 << HILBERT_ORDER;
+        long index = 0;
+        for (int s = n / 2; s > 0; s >>= 1) {
+            final int rx = (x & s) > 0 ? 1 : 0;
+            final int ry = (y & s) > 0 ? 1 : 0;
+            index += (long) s * s * ((3 * rx) ^ ry);
+
+            if (ry == 0) {
+                if (rx == 1) {
+                    x = n - 1 - x;
+                    y = n - 1 - y;
+                }
+                final int temp = x;
+                x = y;
+                y = temp;
+            }
+        }
+        return index;
+    }
+
+    private static double centerX(final Window window) {
+        return (window.getXMin() + window.getXMax()) / 2;
+    }
+
+    private static double centerY(final Window window) {
+        return (window.getYMin() + window.getYMax()) / 2;
+    }
+
+    private static class SearchTask extends RecursiveAction {
+        private final SpatialIndex index;
+        private final List<Window> windows;
+        private final int[] order;
+        private final List<List<Point>> results;
+        // only a batch given a pool is split, a task that runs on a worker thread otherwise still stays sequential
+        private final boolean parallel;
+        private final int start;
+        private final int end;
+
+        SearchTask(final SpatialIndex index,
+                   final List<Window> windows,
+                   final int[] order,
+                   final List<List<Point>> results,
+                   final boolean parallel,
+                   final int start,
+                   final int end) {
+            this.index = index;
+            this.windows = windows;
+            this.order = order;
+            this.results = results;
+            this.parallel = parallel;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start > CHUNK_SIZE && parallel) {
+                final int middle = (start + end) >>> 1;
+                invokeAll(new SearchTask(index, windows, order, results, true, start, middle),
+                        new SearchTask(index, windows, order, results, true, middle, end));
+                return;
+            }
+
+            final List<Point> buffer = new ArrayList<>();
+            final PointConsumer consumer = buffer::add;
+            for (int i = start; i < end; i++) {
+                final int windowIndex = order[i];
+                index.search(windows.get(windowIndex), consumer);
+                results.set(windowIndex, new ArrayList<>(buffer));
+                buffer.clear();
+            }
+        }
+    }
+
+    private static class JoinTask extends RecursiveAction {
+        private final SpatialIndex index;
+        private final List<Window> windows;
+        private final int[] order;
+        private final WindowPointConsumer consumer;
+        private final boolean parallel;
+        private final int start;
+        private final int end;
+
+        JoinTask(final SpatialIndex index,
+                 final List<Window> windows,
+                 final int[] order,
+                 final WindowPointConsumer consumer,
+                 final boolean parallel,
+                 final int start,
+                 final int end) {
+            this.index = index;
+            this.windows = windows;
+            this.order = order;
+            this.consumer = consumer;
+            this.parallel = parallel;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start > CHUNK_SIZE && parallel) {
+                final int middle = (start + end) >>> 1;
+                invokeAll(new JoinTask(index, windows, order, consumer, true, start, middle),
+                        new JoinTask(index, windows, order, consumer, true, middle, end));
+                return;
+            }
+
+            for (int i = start; i < end; i++) {
+                final int windowIndex = order[i];
+                index.search(windows.get(windowIndex), point -> consumer.accept(windowIndex, point));
+            }
+        }
+    }
+}
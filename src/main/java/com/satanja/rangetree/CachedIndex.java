@@ -0,0 +1,329 @@
+package com.satanja.rangetree;
+
+import com.satanja.util.WindowUtils;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caches the results of window searches on another index, for clients that repeat the same or nearly the same windows,
+ * such as map tiles. Every edge of a window is rounded to the nearest multiple of the quantum, windows with the same
+ * rounded edges share one entry. The entry holds the points of the rounded window widened by half a quantum on every
+ * side, which contains all those windows, and is filtered down to the window on a hit. Rounding to the nearest rather
+ * than outwards keeps windows that are off a multiple of the quantum by a tiny amount, as tile bounds computed by
+ * different clients tend to be, on the same entry. A quantum of 0 caches exact windows only.
+ * <p>
+ * The cache is bounded by a number of entries and by an estimate of the bytes the entries hold, the least recently
+ * used entries are evicted first and a result that would take more than the whole byte budget is not cached. The
+ * entries are split over segments with a lock each, so concurrent readers contend only when their windows fall in the
+ * same segment, a small cache has a single segment and evicts in exact LRU order.
+ * <p>
+ * A cache over a {@link SnapshotIndex} drops its entries as soon as a query sees a newly published index, a cache over
+ * any other index assumes it does not change, or has to be {@link #invalidate}d when it does.
+ */
+public class CachedIndex implements SpatialIndex {
+
+    // a reference to every cached point and the point itself, which the index may share, and the key, map entry and
+    // array headers of every entry
+    private static final int POINT_BYTES = 32;
+    private static final int ENTRY_BYTES = 128;
+
+    private static final int MAX_SEGMENTS = 16;
+    private static final int ENTRIES_PER_SEGMENT = 64;
+
+    private final SpatialIndex index;
+    private final SnapshotIndex<?> snapshots;
+    private final double quantum;
+
+    private final Segment[] segments;
+
+    // the snapshot version the entries belong to, entries of older versions are dropped
+    private final AtomicLong version = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public CachedIndex(final SpatialIndex index, final double quantum, final int maxEntries, final long maxBytes) {
+        this(index, null, quantum, maxEntries, maxBytes);
+    }
+
+    // queries go to the current snapshot, and publishing a new index invalidates the cache
+    public CachedIndex(final SnapshotIndex<?> snapshots, final double quantum, final int maxEntries, final long maxBytes) {
+        this(null, snapshots, quantum, maxEntries, maxBytes);
+    }
+
+    private CachedIndex(final SpatialIndex index,
+                        final SnapshotIndex<?> snapshots,
+                        final double quantum,
+                        final int maxEntries,
+                        final long maxBytes) {
+        if (!(quantum >= 0) || Double.isInfinite(quantum)) {
+            throw new IllegalArgumentException("Expected a finite non-negative quantum but got " + quantum);
+        }
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("Expected room for at least one entry but got " + maxEntries);
+        }
+        if (maxBytes < 1) {
+            throw new IllegalArgumentException("Expected a positive byte budget but got " + maxBytes);
+        }
+
+        this.index = index;
+        this.snapshots = snapshots;
+        this.quantum = quantum;
+
+        final int count = Math.min(MAX_SEGMENTS, Math.max(1, Integer.highestOneBit(maxEntries / ENTRIES_PER_SEGMENT)));
+        this.segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment(maxEntries / count, maxBytes / count);
+        }
+    }
+
+    @Override
+    public void search(final Window window, final PointConsumer consumer) {
+        for (final Point point : lookup(window)) {
+            if (WindowUtils.windowContainsPoint(window, point)) {
+                consumer.accept(point);
+            }
+        }
+    }
+
+    @Override
+    public int count(final Window window) {
+        int count = 0;
+        for (final Point point : lookup(window)) {
+            if (WindowUtils.windowContainsPoint(window, point)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // drops every entry
+    public void invalidate() {
+        for (final Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    // the hits divided by all lookups, 0 before the first lookup
+    public double hitRate() {
+        final long hits = hits();
+        final long lookups = hits + misses();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    public int size() {
+        int size = 0;
+        for (final Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    // the estimated bytes held by the entries
+    public long bytes() {
+        long bytes = 0;
+        for (final Segment segment : segments) {
+            bytes += segment.bytes();
+        }
+        return bytes;
+    }
+
+    /*
+     * The points of the widened window, from the cache if possible. Two threads that miss on the same key both search
+     * the index, the second result replaces the first, which only costs the work.
+     */
+    private Point[] lookup(final Window window) {
+        final Key key = new Key(round(window.getXMin()), round(window.getXMax()), round(window.getYMin()), round(window.getYMax()));
+        final Segment segment = segments[(key.hashCode() & Integer.MAX_VALUE) % segments.length];
+
+        if (snapshots == null) {
+            return lookup(index, 0, key, segment);
+        }
+        try (SnapshotIndex.Snapshot<?> snapshot = snapshots.acquire()) {
+            advance(snapshot.version());
+            return lookup(snapshot.index(), snapshot.version(), key, segment);
+        }
+    }
+
+    /*
+     * Entries are tagged with the snapshot version they were searched on. A query that still holds an older snapshot
+     * can store its result after the cache was invalidated, the tag keeps queries on the newer snapshot from using it.
+     */
+    private Point[] lookup(final SpatialIndex source, final long sourceVersion, final Key key, final Segment segment) {
+        final Entry cached = segment.get(key);
+        if (cached != null && cached.version == sourceVersion) {
+            hits.increment();
+            return cached.points;
+        }
+
+        misses.increment();
+        final Point[] points = collect(source, widen(key));
+        if (sourceVersion == version.get()) {
+            segment.put(key, new Entry(points, sourceVersion));
+        }
+        return points;
+    }
+
+    // the first query that sees a newer snapshot drops the entries of the older ones
+    private void advance(final long snapshotVersion) {
+        long current = version.get();
+        while (snapshotVersion > current) {
+            if (version.compareAndSet(current, snapshotVersion)) {
+                invalidate();
+                return;
+            }
+            current = version.get();
+        }
+    }
+
+    private static Point[] collect(final SpatialIndex source, final Window window) {
+        final Point[][] points = {new Point[16]};
+        final int[] size = new int[1];
+        source.search(window, point -> {
+            if (size[0] == points[0].length) {
+                points[0] = Arrays.copyOf(points[0], 2 * size[0]);
+            }
+            points[0][size[0]++] = point;
+        });
+        return Arrays.copyOf(points[0], size[0]);
+    }
+
+    // the edges of the key in multiples of the quantum, or the exact edges for a quantum of 0
+    private double round(final double value) {
+        return quantum == 0 ? value : Math.rint(value / quantum);
+    }
+
+    private Window widen(final Key key) {
+        if (quantum == 0) {
+            return new Window(key.xMin, key.xMax, key.yMin, key.yMax);
+        }
+        return new Window(lower(key.xMin), upper(key.xMax), lower(key.yMin), upper(key.yMax));
+    }
+
+    // a few ulps of slack, so a coordinate that was rounded towards the key still lies inside after the rounding errors
+    private double lower(final double multiple) {
+        final double edge = multiple * quantum - quantum / 2;
+        return edge - 4 * Math.ulp(Math.abs(edge) + quantum);
+    }
+
+    private double upper(final double multiple) {
+        final double edge = multiple * quantum + quantum / 2;
+        return edge + 4 * Math.ulp(Math.abs(edge) + quantum);
+    }
+
+    private static final class Entry {
+        private final Point[] points;
+        private final long version;
+
+        Entry(final Point[] points, final long version) {
+            this.points = points;
+            this.version = version;
+        }
+
+        long weight() {
+            return ENTRY_BYTES + (long) points.length * POINT_BYTES;
+        }
+    }
+
+    private static final class Key {
+        private final double xMin;
+        private final double xMax;
+        private final double yMin;
+        private final double yMax;
+
+        Key(final double xMin, final double xMax, final double yMin, final double yMax) {
+            this.xMin = xMin;
+            this.xMax = xMax;
+            this.yMin = yMin;
+            this.yMax = yMax;
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            final Key key = (Key) other;
+            return Double.compare(xMin, key.xMin) == 0 && Double.compare(xMax, key.xMax) == 0
+                    && Double.compare(yMin, key.yMin) == 0 && Double.compare(yMax, key.yMax) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = Double.hashCode(xMin);
+            hash = 31 * hash + Double.hashCode(xMax);
+            hash = 31 * hash + Double.hashCode(yMin);
+            hash = 31 * hash + Double.hashCode(yMax);
+            // spread the bits, the segment is picked from the low ones
+            return hash ^ (hash >>> 16);
+        }
+    }
+
+    // an LRU map in access order, every method holds the lock of the segment
+    private final class Segment {
+        private final int maxEntries;
+        private final long maxBytes;
+        private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private long bytes;
+
+        Segment(final int maxEntries, final long maxBytes) {
+            this.maxEntries = Math.max(1, maxEntries);
+            this.maxBytes = Math.max(1, maxBytes);
+        }
+
+        synchronized Entry get(final Key key) {
+            return entries.get(key);
+        }
+
+        synchronized void put(final Key key, final Entry entry) {
+            final long weight = entry.weight();
+            if (weight > maxBytes) {
+                return;
+            }
+
+            final Entry previous = entries.put(key, entry);
+            if (previous != null) {
+                bytes -= previous.weight();
+            }
+            bytes += weight;
+
+            final Iterator<Map.Entry<Key, Entry>> eldest = entries.entrySet().iterator();
+            while (entries.size() > maxEntries || bytes > maxBytes) {
+                bytes -= eldest.next().getValue().weight();
+                eldest.remove();
+                evictions.increment();
+            }
+        }
+
+        synchronized void clear() {
+            entries.clear();
+            bytes = 0;
+        }
+
+        synchronized int size() {
+            return entries.size();
+        }
+
+        synchronized long bytes() {
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.satanja.rangetree;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Range tree that supports inserts and deletes with the logarithmic method of Bentley and Saxe. Points are collected
+ * in a small buffer, a full buffer is merged with the occupied blocks below the first free block into one static
+ * {@link RangeTree}, where block {@code i} holds at most {@code BUFFER_SIZE * 2^i} points. Deletes leave a tombstone
+ * that hides one copy of the point until it is dropped while merging, once half the stored points are tombstones
+ * everything is rebuilt. Queries fan out over the buffer and all blocks.
+ * <p>
+ * Not thread-safe.
+ */
+public class DynamicRangeTree implements SpatialIndex {
+
+    private static final int BUFFER_SIZE = 64;
+
+    private final List<Point> buffer = new ArrayList<>(BUFFER_SIZE);
+    private final List<RangeTree> blocks = new ArrayList<>();
+
+    // number of copies of a point that are deleted but still stored in a block
+    private final Map<Point, Integer> tombstones = new HashMap<>();
+    private int tombstoneCount;
+
+    private int size;
+
+    public DynamicRangeTree() {
+    }
+
+    public DynamicRangeTree(final List<Point> points) {
+        this.size = points.size();
+        place(new ArrayList<>(points));
+    }
+
+    public void insert(final Point point) {
+        size++;
+        buffer.add(point);
+        if (buffer.size() < BUFFER_SIZE) {
+            return;
+        }
+
+        final List<Point> carry = new ArrayList<>(buffer);
+        buffer.clear();
+        place(carry);
+    }
+
+    // removes one copy of the point, returns false if the point is not stored
+    public boolean delete(final Point point) {
+        if (buffer.remove(point)) {
+            size--;
+            return true;
+        }
+
+        final Window window = new Window(point.getX(), point.getX(), point.getY(), point.getY());
+        int stored = 0;
+        for (final RangeTree block : blocks) {
+            if (block != null) {
+                stored += block.count(window);
+            }
+        }
+
+        if (stored <= tombstones.getOrDefault(point, 0)) {
+            return false;
+        }
+
+        tombstones.merge(point, 1, Integer::sum);
+        tombstoneCount++;
+        size--;
+
+        if (2 * tombstoneCount > size + tombstoneCount) {
+            rebuild();
+        }
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void search(final Window window, final PointConsumer consumer) {
+        for (final Point point : buffer) {
+            if (window.getXMin() <= point.getX() && point.getX() <= window.getXMax() &&
+                    window.getYMin() <= point.getY() && point.getY() <= window.getYMax()) {
+                consumer.accept(point);
+            }
+        }
+
+        if (tombstones.isEmpty()) {
+            for (final RangeTree block : blocks) {
+                if (block != null) {
+                    block.search(window, consumer);
+                }
+            }
+            return;
+        }
+
+        // every tombstone hides one stored copy of its point
+        final Map<Point, Integer> hidden = new HashMap<>();
+        final PointConsumer filter = point -> {
+            final Integer deleted = tombstones.get(point);
+            if (deleted != null && hidden.merge(point, 1, Integer::sum) <= deleted) {
+                return;
+            }
+            consumer.accept(point);
+        };
+        for (final RangeTree block : blocks) {
+            if (block != null) {
+                block.search(window, filter);
+            }
+        }
+    }
+
+    // merges the carry with occupied blocks until it fits in the first free block that is large enough
+    private void place(final List<Point> carry) {
+        int level = 0;
+        while (true) {
+            if (level == blocks.size()) {
+                blocks.add(null);
+            }
+
+            final RangeTree block = blocks.get(level);
+            if (block != null) {
+                addLive(block.points(), carry);
+                blocks.set(level, null);
+            } else if (carry.size() <= capacity(level)) {
+                blocks.set(level, carry.isEmpty() ? null : new RangeTree(carry));
+                return;
+            }
+            level++;
+        }
+    }
+
+    private void rebuild() {
+        final List<Point> live = new ArrayList<>(size);
+        for (int level = 0; level < blocks.size(); level++) {
+            final RangeTree block = blocks.get(level);
+            if (block != null) {
+                addLive(block.points(), live);
+                blocks.set(level, null);
+            }
+        }
+        place(live);
+    }
+
+    // adds the points to the target, dropping one copy of a point for every tombstone it has
+    private void addLive(final List<Point> points, final List<Point> target) {
+        for (final Point point : points) {
+            if (tombstoneCount > 0) {
+                final Integer deleted = tombstones.get(point);
+                if (deleted != null) {
+                    if (deleted == 1) {
+                        tombstones.remove(point);
+                    } else {
+                        tombstones.put(point, deleted - 1);
+                    }
+                    tombstoneCount--;
+                    continue;
+                }
+            }
+            target.add(point);
+        }
+    }
+
+    private static long capacity(final int level) {
+        return (long) BUFFER_SIZE << level;
+    }
+}
@@ -0,0 +1,146 @@
+package com.satanja.rangetree;
+
+import com.satanja.util.SortUtils;
+
+import java.util.List;
+
+/**
+ * Array-backed variant of {@link RangeTree}. The tree is implicit: a node covers a range {@code [start, end)} of the
+ * x-sorted points and splits at the same median as {@link RangeTree}. Every level stores the y-sorted keys of all its
+ * nodes in one array, with each node occupying the slice {@code [start, end)}, so the associated structures of a level
+ * are contiguous in memory.
+ * <p>
+ * Immutable once constructed, queries from several threads are safe.
+ */
+public class FlatRangeTree extends AbstractFlatRangeTree {
+
+    private final PointSet pointSet;
+
+    // x coordinates sorted on x
+    private final double[] xs;
+
+    // per level, the y coordinates and ids of the keys of every node on that level, the ids hold x-ranks until the
+    // tree is constructed
+    private final double[][] ys;
+    private final int[][] ids;
+
+    // per level, the number of keys in [start, p) of the node around p that belong to its left child
+    private final int[][] bridges;
+
+    public FlatRangeTree(final List<Point> points) {
+        this(PointSet.of(points));
+    }
+
+    public FlatRangeTree(final PointSet pointSet) {
+        super(pointSet.size());
+        this.pointSet = pointSet;
+
+        final int[] xOrder = SortUtils.sortIndexes(pointSet.xs());
+        this.xs = new double[size];
+        final double[] yByRank = new double[size];
+        for (int i = 0; i < size; i++) {
+            xs[i] = pointSet.getX(xOrder[i]);
+            yByRank[i] = pointSet.getY(xOrder[i]);
+        }
+
+        final int levels = levels(size);
+        this.ys = new double[levels][size];
+        this.ids = new int[levels][];
+        this.bridges = new int[Math.max(levels - 1, 0)][size];
+
+        this.ids[0] = SortUtils.sortIndexes(yByRank);
+        for (int level = 1; level < levels; level++) {
+            this.ids[level] = new int[size];
+        }
+        for (int i = 0; i < size; i++) {
+            ys[0][i] = yByRank[ids[0][i]];
+        }
+
+        if (size > 0) {
+            construct(0, size, 0, yByRank);
+        }
+
+        // queries only follow the bridges, so the x-ranks can be replaced by the ids they report
+        for (final int[] levelIds : ids) {
+            for (int i = 0; i < size; i++) {
+                levelIds[i] = xOrder[levelIds[i]];
+            }
+        }
+    }
+
+    @Override
+    Point point(final int id) {
+        return pointSet.get(id);
+    }
+
+    @Override
+    double x(final int rank) {
+        return xs[rank];
+    }
+
+    @Override
+    double y(final int level, final int position) {
+        return ys[level][position];
+    }
+
+    @Override
+    int id(final int level, final int position) {
+        return ids[level][position];
+    }
+
+    @Override
+    int bridge(final int level, final int position) {
+        return bridges[level][position];
+    }
+
+    PointSet pointSet() {
+        return pointSet;
+    }
+
+    double[] xs() {
+        return xs;
+    }
+
+    double[][] ys() {
+        return ys;
+    }
+
+    int[][] ids() {
+        return ids;
+    }
+
+    int[][] bridges() {
+        return bridges;
+    }
+
+    private void construct(final int start, final int end, final int level, final double[] yByRank) {
+        if (end - start == 1) {
+            return;
+        }
+
+        final int middle = middle(start, end);
+        final int[] parentRanks = ids[level];
+        final int[] childRanks = ids[level + 1];
+        final double[] childYs = ys[level + 1];
+        final int[] levelBridges = bridges[level];
+
+        int left = start;
+        int right = middle;
+        for (int i = start; i < end; i++) {
+            final int rank = parentRanks[i];
+            levelBridges[i] = left - start;
+            if (rank < middle) {
+                childRanks[left] = rank;
+                childYs[left] = yByRank[rank];
+                left++;
+            } else {
+                childRanks[right] = rank;
+                childYs[right] = yByRank[rank];
+                right++;
+            }
+        }
+
+        construct(start, middle, level + 1, yByRank);
+        construct(middle, end, level + 1, yByRank);
+    }
+}
@@ -1,93 +1,200 @@
 package com.satanja.rangetree;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.List;
-import java.util.function.Predicate;
-
 public class FractionalCascading {
 
-    private final List<FractionalCascadingKey> keys;
+    private final FractionalCascadingKey[] keys;
+
+    // y coordinate by x-rank, shared by every associated structure of the tree
+    private final double[] ys;
 
     private FractionalCascading leftChild;
     private FractionalCascading rightChild;
 
-    FractionalCascading(final List<Point> sortedKeys) {
-        this.keys = new ArrayList<>(sortedKeys.size());
-        for (int i = 0; i < sortedKeys.size(); i++) {
-            keys.add(new FractionalCascadingKey(sortedKeys.get(i), i));
+    // only present in weighted trees: prefixSums[i] is the sum of the weights of keys [0, i), minima[k][i] and
+    // maxima[k][i] are the minimum and maximum weight of keys [i, i + 2^k), so every aggregate takes O(1)
+    private double[] prefixSums;
+    private double[][] minima;
+    private double[][] maxima;
+
+    // yOrder holds the x-ranks sorted on y
+    FractionalCascading(final double[] ys, final int[] yOrder) {
+        this.ys = ys;
+        this.keys = new FractionalCascadingKey[yOrder.length];
+        for (int i = 0; i < yOrder.length; i++) {
+            keys[i] = new FractionalCascadingKey(yOrder[i], i);
         }
     }
 
-    FractionalCascading(final FractionalCascading parent, final List<Point> sortedKeysSubset, final boolean isLhs) {
-        this(sortedKeysSubset);
-        updatePointers(parent, isLhs);
+    private FractionalCascading(final double[] ys, final int size) {
+        this.ys = ys;
+        this.keys = new FractionalCascadingKey[size];
     }
 
+    // first key with y >= min, null if there is none
     FractionalCascadingKey rootSearch(final double min) {
-        final int index = Collections.binarySearch(keys, new FractionalCascadingKey(new Point(0, min), 0), Comparator.comparingDouble(f -> f.getPoint().getY()));
-        if (index < 0) {
-            return keys.get(-1 * (index + 1));
-        } else {
-            return keys.get(index);
+        int lo = 0;
+        int hi = keys.length;
+        while (lo < hi) {
+            final int middle = (lo + hi) >>> 1;
+            if (ys[keys[middle].getRank()] < min) {
+                lo = middle + 1;
+            } else {
+                hi = middle;
+            }
         }
+        return lo < keys.length ? keys[lo] : null;
     }
 
-    List<Point> report(final FractionalCascadingKey startKey, final Window window) {
-        if (startKey == null) {
-            return new ArrayList<>();
+    // first key with y > max, null if there is none
+    FractionalCascadingKey rootSearchAbove(final double max) {
+        int lo = 0;
+        int hi = keys.length;
+        while (lo < hi) {
+            final int middle = (lo + hi) >>> 1;
+            if (ys[keys[middle].getRank()] <= max) {
+                lo = middle + 1;
+            } else {
+                hi = middle;
+            }
         }
+        return lo < keys.length ? keys[lo] : null;
+    }
 
-        final List<Point> result = new ArrayList<>();
+    // reports the ids of the keys from startKey up to, but excluding, endKey and returns their number, ids are indexed
+    // by x-rank
+    int report(final FractionalCascadingKey startKey, final FractionalCascadingKey endKey, final int[] ids, final IdConsumer consumer) {
+        final int start = index(startKey);
+        final int end = index(endKey);
+        for (int i = start; i < end; i++) {
+            consumer.accept(ids[keys[i].getRank()]);
+        }
+        return Math.max(0, end - start);
+    }
 
-        for (int i = startKey.getIndex(); i < keys.size(); i++) {
-            final Point point = keys.get(i).getPoint();
+    // as report, and adds the keys it examined to counts[0] and the ones it reported to counts[1], the end key bounds
+    // the slice and is examined without being reported
+    void report(final FractionalCascadingKey startKey,
+                final FractionalCascadingKey endKey,
+                final int[] ids,
+                final IdConsumer consumer,
+                final long[] counts) {
+        final int reported = report(startKey, endKey, ids, consumer);
+        counts[0] += reported + (endKey != null ? 1 : 0);
+        counts[1] += reported;
+    }
 
-            if (window.getXMin() <= point.getX() && point.getX() <= window.getXMax() &&
-                    window.getYMin() <= point.getY() && point.getY() <= window.getYMax()) {
-                result.add(point);
-            }
+    double sum(final FractionalCascadingKey startKey, final FractionalCascadingKey endKey) {
+        return prefixSums[index(endKey)] - prefixSums[index(startKey)];
+    }
 
-            if (point.getY() > window.getYMax()) {
-                break;
-            }
+    double min(final FractionalCascadingKey startKey, final FractionalCascadingKey endKey) {
+        final int start = index(startKey);
+        final int end = index(endKey);
+        if (start >= end) {
+            return Double.POSITIVE_INFINITY;
         }
 
-        return result;
+        final int level = 31 - Integer.numberOfLeadingZeros(end - start);
+        return Math.min(minima[level][start], minima[level][end - (1 << level)]);
     }
 
-    private void updatePointers(final FractionalCascading parent, final boolean isLhs) {
-        int indexParent = 0;
-        int indexCurrent = 0;
-        final List<FractionalCascadingKey> parentKeys = parent.getKeys();
+    double max(final FractionalCascadingKey startKey, final FractionalCascadingKey endKey) {
+        final int start = index(startKey);
+        final int end = index(endKey);
+        if (start >= end) {
+            return Double.NEGATIVE_INFINITY;
+        }
 
-        if (isLhs) {
-            parent.setLeftChild(this);
-        } else {
-            parent.setRightChild(this);
+        final int level = 31 - Integer.numberOfLeadingZeros(end - start);
+        return Math.max(maxima[level][start], maxima[level][end - (1 << level)]);
+    }
+
+    // weights are indexed by x-rank
+    void aggregate(final double[] weights) {
+        final int size = keys.length;
+        final int levels = 32 - Integer.numberOfLeadingZeros(size);
+
+        prefixSums = new double[size + 1];
+        minima = new double[levels][];
+        maxima = new double[levels][];
+        minima[0] = new double[size];
+        maxima[0] = new double[size];
+        for (int i = 0; i < size; i++) {
+            final double weight = weights[keys[i].getRank()];
+            prefixSums[i + 1] = prefixSums[i] + weight;
+            minima[0][i] = weight;
+            maxima[0][i] = weight;
         }
 
-        while (indexParent < parentKeys.size() && indexCurrent < keys.size()) {
-            final FractionalCascadingKey parentKey = parentKeys.get(indexParent);
-            for (; indexCurrent < keys.size(); indexCurrent++) {
-                final FractionalCascadingKey childKey = keys.get(indexCurrent);
-
-                if (parentKey.getPoint().getY() <= childKey.getPoint().getY()) {
-                    if (isLhs) {
-                        parentKey.setLeft(childKey);
-                    } else {
-                        parentKey.setRight(childKey);
-                    }
-                    indexParent += 1;
-                    break;
-                }
+        for (int level = 1; level < levels; level++) {
+            final int half = 1 << (level - 1);
+            final int length = size - (1 << level) + 1;
+            minima[level] = new double[length];
+            maxima[level] = new double[length];
+            for (int i = 0; i < length; i++) {
+                minima[level][i] = Math.min(minima[level - 1][i], minima[level - 1][i + half]);
+                maxima[level][i] = Math.max(maxima[level - 1][i], maxima[level - 1][i + half]);
             }
         }
     }
 
-    private List<FractionalCascadingKey> getKeys() {
-        return keys;
+    // a missing key lies past the last key
+    int index(final FractionalCascadingKey key) {
+        return key == null ? keys.length : key.getIndex();
+    }
+
+    /**
+     * Splits the keys into the associated structures of both children and wires the cascading pointers in a single
+     * backwards pass. The node covers the x-ranks {@code [offset, offset + size)}, a rank below {@code middle} belongs
+     * to the left child.
+     */
+    void split(final int offset, final int middle) {
+        final int leftSize = middle - offset;
+        final FractionalCascading left = new FractionalCascading(ys, leftSize);
+        final FractionalCascading right = new FractionalCascading(ys, keys.length - leftSize);
+        setLeftChild(left);
+        setRightChild(right);
+
+        int leftIndex = leftSize;
+        int rightIndex = keys.length - leftSize;
+        FractionalCascadingKey nextLeft = null;
+        FractionalCascadingKey nextRight = null;
+        for (int i = keys.length - 1; i >= 0; i--) {
+            final FractionalCascadingKey key = keys[i];
+            final int rank = key.getRank();
+            if (rank < middle) {
+                leftIndex--;
+                nextLeft = new FractionalCascadingKey(rank, leftIndex);
+                left.keys[leftIndex] = nextLeft;
+            } else {
+                rightIndex--;
+                nextRight = new FractionalCascadingKey(rank, rightIndex);
+                right.keys[rightIndex] = nextRight;
+            }
+
+            key.setLeft(nextLeft);
+            key.setRight(nextRight);
+        }
+    }
+
+    int size() {
+        return keys.length;
+    }
+
+    int rank(final int index) {
+        return keys[index].getRank();
+    }
+
+    double y(final int index) {
+        return ys[keys[index].getRank()];
+    }
+
+    FractionalCascading getLeftChild() {
+        return leftChild;
+    }
+
+    FractionalCascading getRightChild() {
+        return rightChild;
     }
 
     private void setLeftChild(final FractionalCascading leftChild) {
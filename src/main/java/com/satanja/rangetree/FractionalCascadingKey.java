@@ -5,14 +5,15 @@ import lombok.Getter;
 @Getter
 class FractionalCascadingKey {
 
-    private final Point point;
+    // x-rank of the point of the key
+    private final int rank;
     private final int index;
 
     private FractionalCascadingKey leftChild;
     private FractionalCascadingKey rightChild;
 
-    public FractionalCascadingKey(final Point point, final int index) {
-        this.point = point;
+    public FractionalCascadingKey(final int rank, final int index) {
+        this.rank = rank;
         this.index = index;
     }
 
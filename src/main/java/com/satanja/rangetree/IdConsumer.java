@@ -0,0 +1,6 @@
+package com.satanja.rangetree;
+
+@FunctionalInterface
+public interface IdConsumer {
+    void accept(int id);
+}
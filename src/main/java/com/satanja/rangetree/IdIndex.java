@@ -0,0 +1,21 @@
+package com.satanja.rangetree;
+
+import java.util.Arrays;
+
+// an index that reports its hits as ids, the positions of the points in the PointSet or list it was built from
+public interface IdIndex {
+
+    void searchIds(Window window, IdConsumer consumer);
+
+    default int[] searchIds(final Window window) {
+        final int[][] ids = {new int[16]};
+        final int[] size = new int[1];
+        searchIds(window, id -> {
+            if (size[0] == ids[0].length) {
+                ids[0] = Arrays.copyOf(ids[0], size[0] * 2);
+            }
+            ids[0][size[0]++] = id;
+        });
+        return Arrays.copyOf(ids[0], size[0]);
+    }
+}
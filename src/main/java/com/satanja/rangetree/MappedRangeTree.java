@@ -0,0 +1,174 @@
+package com.satanja.rangetree;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A {@link FlatRangeTree} that is queried straight from a memory-mapped file. {@link #write} stores the arrays of a
+ * constructed tree once, {@link #open} maps the file and reads nothing but the header, so opening takes constant time
+ * and the tree lives off-heap in the page cache, where processes that map the same file share it.
+ * <p>
+ * All values are little-endian. The file starts with a header of {@code HEADER_SIZE} bytes: the magic number, the
+ * format version, the number of points and the number of levels as ints, the rest is reserved. Then follow, without
+ * padding, the doubles
+ * <ul>
+ *     <li>the x coordinates sorted on x,</li>
+ *     <li>the x and the y coordinates by id,</li>
+ *     <li>per level, the y coordinates of the keys,</li>
+ * </ul>
+ * and the ints
+ * <ul>
+ *     <li>per level, the ids of the keys,</li>
+ *     <li>per level but the last, the bridges.</li>
+ * </ul>
+ * <p>
+ * Queries from several threads are safe. Closing unmaps the file, queries still running then fail, so a tree that is
+ * shared between threads is best closed through a {@link SnapshotIndex}.
+ */
+public class MappedRangeTree extends AbstractFlatRangeTree implements AutoCloseable {
+
+    public static final int MAGIC = 0x524E4754;
+    public static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 64;
+
+    private static final ValueLayout.OfInt INT = ValueLayout.JAVA_INT.withOrder(ByteOrder.LITTLE_ENDIAN);
+    private static final ValueLayout.OfDouble DOUBLE = ValueLayout.JAVA_DOUBLE.withOrder(ByteOrder.LITTLE_ENDIAN);
+
+    private final Arena arena;
+    private final MemorySegment segment;
+
+    // byte offsets of the sections
+    private final long xsOffset;
+    private final long pointXsOffset;
+    private final long pointYsOffset;
+    private final long ysOffset;
+    private final long idsOffset;
+    private final long bridgesOffset;
+
+    private MappedRangeTree(final Arena arena, final MemorySegment segment, final int size, final int levels) {
+        super(size);
+        this.arena = arena;
+        this.segment = segment;
+
+        final long doubles = (long) size * Double.BYTES;
+        this.xsOffset = HEADER_SIZE;
+        this.pointXsOffset = xsOffset + doubles;
+        this.pointYsOffset = pointXsOffset + doubles;
+        this.ysOffset = pointYsOffset + doubles;
+        this.idsOffset = ysOffset + levels * doubles;
+        this.bridgesOffset = idsOffset + (long) levels * size * Integer.BYTES;
+    }
+
+    public static void write(final FlatRangeTree tree, final Path path) throws IOException {
+        final int size = tree.size();
+        final int levels = tree.ys().length;
+        final long length = length(size, levels);
+
+        try (Arena arena = Arena.ofConfined();
+             FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                     StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final MemorySegment segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, length, arena);
+            segment.set(INT, 0, MAGIC);
+            segment.set(INT, 4, VERSION);
+            segment.set(INT, 8, size);
+            segment.set(INT, 12, levels);
+
+            final PointSet pointSet = tree.pointSet();
+            long offset = HEADER_SIZE;
+            offset = copy(tree.xs(), segment, offset);
+            offset = copy(pointSet.xs(), segment, offset);
+            offset = copy(pointSet.ys(), segment, offset);
+            for (final double[] levelYs : tree.ys()) {
+                offset = copy(levelYs, segment, offset);
+            }
+            for (final int[] levelIds : tree.ids()) {
+                MemorySegment.copy(levelIds, 0, segment, INT, offset, size);
+                offset += (long) size * Integer.BYTES;
+            }
+            for (final int[] levelBridges : tree.bridges()) {
+                MemorySegment.copy(levelBridges, 0, segment, INT, offset, size);
+                offset += (long) size * Integer.BYTES;
+            }
+            segment.force();
+        }
+    }
+
+    // the tree stays mapped until it is closed
+    public static MappedRangeTree open(final Path path) throws IOException {
+        final Arena arena = Arena.ofShared();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final long length = channel.size();
+            if (length < HEADER_SIZE) {
+                throw new IllegalArgumentException(path + " is not a range tree file");
+            }
+
+            final MemorySegment segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, length, arena);
+            if (segment.get(INT, 0) != MAGIC) {
+                throw new IllegalArgumentException(path + " is not a range tree file");
+            }
+            final int version = segment.get(INT, 4);
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Expected range tree format version " + VERSION + " but " + path + " has version " + version);
+            }
+
+            final int size = segment.get(INT, 8);
+            final int levels = segment.get(INT, 12);
+            if (size < 0 || levels != levels(size) || length != length(size, levels)) {
+                throw new IllegalArgumentException(path + " is truncated or corrupt");
+            }
+            return new MappedRangeTree(arena, segment, size, levels);
+        } catch (final IOException | RuntimeException e) {
+            arena.close();
+            throw e;
+        }
+    }
+
+    @Override
+    double x(final int rank) {
+        return segment.get(DOUBLE, xsOffset + (long) rank * Double.BYTES);
+    }
+
+    @Override
+    double y(final int level, final int position) {
+        return segment.get(DOUBLE, ysOffset + ((long) level * size + position) * Double.BYTES);
+    }
+
+    @Override
+    int id(final int level, final int position) {
+        return segment.get(INT, idsOffset + ((long) level * size + position) * Integer.BYTES);
+    }
+
+    @Override
+    int bridge(final int level, final int position) {
+        return segment.get(INT, bridgesOffset + ((long) level * size + position) * Integer.BYTES);
+    }
+
+    @Override
+    Point point(final int id) {
+        return new Point(segment.get(DOUBLE, pointXsOffset + (long) id * Double.BYTES),
+                segment.get(DOUBLE, pointYsOffset + (long) id * Double.BYTES));
+    }
+
+    @Override
+    public void close() {
+        arena.close();
+    }
+
+    private static long copy(final double[] values, final MemorySegment segment, final long offset) {
+        MemorySegment.copy(values, 0, segment, DOUBLE, offset, values.length);
+        return offset + (long) values.length * Double.BYTES;
+    }
+
+    private static long length(final int size, final int levels) {
+        final long doubles = (3L + levels) * size * Double.BYTES;
+        final long ints = (2L * levels - 1) * size * Integer.BYTES;
+        return HEADER_SIZE + doubles + ints;
+    }
+}
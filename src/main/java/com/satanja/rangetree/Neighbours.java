@@ -0,0 +1,156 @@
+package com.satanja.rangetree;
+
+/**
+ * The k nearest points found by a nearest neighbour query. While the query runs the points are kept in a bounded
+ * max-heap on their squared distance, so every offer takes O(log k) and nothing is allocated per point. The accessors
+ * return the neighbours from nearest to farthest.
+ */
+public class Neighbours {
+
+    private final int k;
+    private final double[] squaredDistances;
+    private final int[] ids;
+    private final Point[] points;
+    private int size;
+    private boolean sorted;
+
+    // resolves the points of neighbours that were offered by id only, null if every neighbour has its point
+    private final PointSet source;
+
+    public Neighbours(final int k) {
+        this(k, null);
+    }
+
+    Neighbours(final int k, final PointSet source) {
+        if (k < 0) {
+            throw new IllegalArgumentException("Expected a non-negative number of neighbours but got " + k);
+        }
+
+        this.k = k;
+        this.squaredDistances = new double[k];
+        this.ids = new int[k];
+        this.points = new Point[k];
+        this.source = source;
+    }
+
+    // the largest squared distance that is kept, infinite while fewer than k points were offered
+    public double bound() {
+        if (k == 0) {
+            return Double.NEGATIVE_INFINITY;
+        }
+        return size < k ? Double.POSITIVE_INFINITY : squaredDistances[0];
+    }
+
+    // keeps the point if it is one of the k nearest so far, the id is -1 for indexes without ids
+    public boolean offer(final double squaredDistance, final int id, final Point point) {
+        if (sorted) {
+            throw new IllegalStateException("The neighbours were already read");
+        }
+
+        if (size < k) {
+            squaredDistances[size] = squaredDistance;
+            ids[size] = id;
+            points[size] = point;
+            siftUp(size++);
+            return true;
+        }
+        if (k == 0 || squaredDistance >= squaredDistances[0]) {
+            return false;
+        }
+
+        squaredDistances[0] = squaredDistance;
+        ids[0] = id;
+        points[0] = point;
+        siftDown(0, size);
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public double getDistance(final int i) {
+        sort();
+        return Math.sqrt(squaredDistances[checkIndex(i)]);
+    }
+
+    public int getId(final int i) {
+        sort();
+        return ids[checkIndex(i)];
+    }
+
+    public Point getPoint(final int i) {
+        sort();
+        checkIndex(i);
+        if (points[i] == null) {
+            points[i] = source.get(ids[i]);
+        }
+        return points[i];
+    }
+
+    private int checkIndex(final int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Index " + i + " out of bounds for " + size + " neighbours");
+        }
+        return i;
+    }
+
+    // heap sort in place, the max-heap leaves the nearest neighbour in front
+    private void sort() {
+        if (sorted) {
+            return;
+        }
+
+        for (int end = size - 1; end > 0; end--) {
+            swap(0, end);
+            siftDown(0, end);
+        }
+        sorted = true;
+    }
+
+    private void siftUp(final int index) {
+        int child = index;
+        while (child > 0) {
+            final int parent = (child - 1) >>> 1;
+            if (squaredDistances[parent] >= squaredDistances[child]) {
+                return;
+            }
+            swap(parent, child);
+            child = parent;
+        }
+    }
+
+    private void siftDown(final int index, final int end) {
+        int parent = index;
+        while (true) {
+            int largest = parent;
+            final int left = 2 * parent + 1;
+            final int right = left + 1;
+            if (left < end && squaredDistances[left] > squaredDistances[largest]) {
+                largest = left;
+            }
+            if (right < end && squaredDistances[right] > squaredDistances[largest]) {
+                largest = right;
+            }
+            if (largest == parent) {
+                return;
+            }
+            swap(parent, largest);
+            parent = largest;
+        }
+    }
+
+    private void swap(final int a, final int b) {
+        final double distance = squaredDistances[a];
+        squaredDistances[a] = squaredDistances[b];
+        squaredDistances[b] = distance;
+
+        final int id = ids[a];
+        ids[a] = ids[b];
+        ids[b] = id;
+
+        final Point point = points[a];
+        points[a] = points[b];
+        points[b] = point;
+    }
+}
@@ -0,0 +1,7 @@
+package com.satanja.rangetree;
+
+// receives pairs of point ids, parallel joins call it from several threads at once
+@FunctionalInterface
+public interface PairConsumer {
+    void accept(int first, int second);
+}
@@ -0,0 +1,6 @@
+package com.satanja.rangetree;
+
+@FunctionalInterface
+public interface PointConsumer {
+    void accept(Point point);
+}
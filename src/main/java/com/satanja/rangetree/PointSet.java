@@ -0,0 +1,89 @@
+package com.satanja.rangetree;
+
+import java.util.List;
+
+/**
+ * Struct-of-arrays point storage: the point with id {@code i} has coordinates {@code (xs[i], ys[i])}. Indexes built
+ * from a point set keep only ids and coordinates, so they report their hits as ids without creating {@link Point}
+ * objects. The arrays are not copied and must not be modified after construction.
+ */
+public class PointSet {
+
+    private final double[] xs;
+    private final double[] ys;
+
+    // a copy of the points the set was built from, returned by get, null if the set was built from arrays
+    private final Point[] points;
+
+    public PointSet(final double[] xs, final double[] ys) {
+        if (xs.length != ys.length) {
+            throw new IllegalArgumentException("Expected " + xs.length + " y coordinates but got " + ys.length);
+        }
+        this.xs = xs;
+        this.ys = ys;
+        this.points = null;
+    }
+
+    private PointSet(final double[] xs, final double[] ys, final Point[] points) {
+        this.xs = xs;
+        this.ys = ys;
+        this.points = points;
+    }
+
+    // the id of every point is its position in the list, the list is copied so later changes to it are not seen
+    public static PointSet of(final List<Point> list) {
+        final Point[] points = list.toArray(new Point[0]);
+        final double[] xs = new double[points.length];
+        final double[] ys = new double[points.length];
+        for (int i = 0; i < xs.length; i++) {
+            final Point point = points[i];
+            xs[i] = point.getX();
+            ys[i] = point.getY();
+        }
+        return new PointSet(xs, ys, points);
+    }
+
+    public int size() {
+        return xs.length;
+    }
+
+    public double getX(final int id) {
+        return xs[id];
+    }
+
+    public double getY(final int id) {
+        return ys[id];
+    }
+
+    // the original point if the set was built from a list, a new point otherwise
+    public Point get(final int id) {
+        return points != null ? points[id] : new Point(xs[id], ys[id]);
+    }
+
+    // the smallest window containing every point, a window at the origin if the set is empty
+    public Window bounds() {
+        if (xs.length == 0) {
+            return new Window(0, 0, 0, 0);
+        }
+
+        double minX = xs[0];
+        double maxX = minX;
+        double minY = ys[0];
+        double maxY = minY;
+        for (int id = 1; id < xs.length; id++) {
+            minX = Math.min(minX, xs[id]);
+            maxX = Math.max(maxX, xs[id]);
+            minY = Math.min(minY, ys[id]);
+            maxY = Math.max(maxY, ys[id]);
+        }
+        return new Window(minX, maxX, minY, maxY);
+    }
+
+    double[] xs() {
+        return xs;
+    }
+
+    double[] ys() {
+        return ys;
+    }
+}
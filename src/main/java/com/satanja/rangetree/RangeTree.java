@@ -1,193 +1,614 @@
 package com.satanja.rangetree;
 
-import lombok.AllArgsConstructor;
-import lombok.Data;
+import com.satanja.metrics.Metrics;
+import com.satanja.util.SortUtils;
 
-import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
-public class RangeTree {
+// immutable once constructed, queries from several threads are safe
+public class RangeTree implements SpatialIndex, IdIndex {
+
+    public static final int DEFAULT_SEQUENTIAL_CUTOFF = 1 << 13;
+
+    // subtrees up to this size are scanned by nearest instead of split further, every scanned key costs a dereference
+    // but so does every queued subtree, and small subtrees are mostly queue overhead
+    private static final int NEAREST_SCAN_SIZE = 4096;
 
     private final RangeTreeNode root;
 
-    private final List<Point> xPoints;
+    private final PointSet pointSet;
+
+    // x coordinates sorted on x, and the id of the point with each x-rank
+    private final double[] xs;
+    private final int[] ids;
+
+    // weight of every point by x-rank, null if the tree is not weighted
+    private final double[] weights;
 
     public RangeTree(final List<Point> points) {
-        this.xPoints = new ArrayList<>(points);
-        xPoints.sort(Comparator.comparingDouble(Point::getX));
+        this(points, null, null, Integer.MAX_VALUE);
+    }
 
-        List<IndexedPoint> yPoints = sortPointsOnY(xPoints);
-        this.root = constructRangeTree(0, points.size(), null, yPoints, false);
+    public RangeTree(final List<Point> points, final ForkJoinPool pool) {
+        this(points, null, pool, DEFAULT_SEQUENTIAL_CUTOFF);
     }
 
-    public List<Point> search(final Window window) {
-        final SplitNodeResult splitNodeResult = findSplitNode(window);
-        final RangeTreeNode splitNode = splitNodeResult.node;
-        final FractionalCascadingKey splitKey = splitNodeResult.key;
+    public RangeTree(final List<Point> points, final ForkJoinPool pool, final int sequentialCutoff) {
+        this(points, null, pool, sequentialCutoff);
+    }
 
-        final double xMin = window.getXMin();
-        final double xMax = window.getXMax();
+    // weights[i] is the weight of points.get(i), enables the sum, min and max queries
+    public RangeTree(final List<Point> points, final double[] weights) {
+        this(points, weights, null, Integer.MAX_VALUE);
+    }
 
-        final List<Point> points = new ArrayList<>();
+    public RangeTree(final List<Point> points, final double[] weights, final ForkJoinPool pool, final int sequentialCutoff) {
+        this(PointSet.of(points), weights, pool, sequentialCutoff);
+    }
 
-        // left branch
-        RangeTreeNode leftBranch = splitNode.getLeftSubtree();
-        FractionalCascadingKey leftKey = splitKey.getLeftChild();
-        while (leftBranch != null && leftKey != null) {
-            if (leftBranch.getPosition() < xMin) {
-                if (leftBranch.isLeafNode()) {
-                    break;
-                }
-                leftBranch = leftBranch.getRightSubtree();
-                leftKey = leftKey.getRightChild();
-            } else if (leftBranch.getPosition() > xMin) {
+    public RangeTree(final PointSet pointSet) {
+        this(pointSet, null, null, Integer.MAX_VALUE);
+    }
 
-                if (leftBranch.getRightSubtree() != null) {
-                    points.addAll(leftBranch.getRightSubtree().report(leftKey.getRightChild(), window));
-                } else if (leftBranch.isLeafNode()) {
-                    points.addAll(leftBranch.report(leftKey, window));
-                    break;
-                }
+    // builds the same tree as the sequential constructors, subtrees above the cutoff are constructed in parallel
+    public RangeTree(final PointSet pointSet, final double[] weights, final ForkJoinPool pool, final int sequentialCutoff) {
+        final long start = Metrics.ENABLED ? System.nanoTime() : 0;
+        if (weights != null && weights.length != pointSet.size()) {
+            throw new IllegalArgumentException("Expected " + pointSet.size() + " weights but got " + weights.length);
+        }
 
-                leftBranch = leftBranch.getLeftSubtree();
-                leftKey = leftKey.getLeftChild();
-            } else {
-                points.addAll(leftBranch.report(leftKey, window));
-                break;
+        this.pointSet = pointSet;
+        this.ids = sortIndexes(pointSet.xs(), pool, sequentialCutoff);
+        final int size = ids.length;
+        this.xs = new double[size];
+        final double[] ys = new double[size];
+        for (int i = 0; i < size; i++) {
+            xs[i] = pointSet.getX(ids[i]);
+            ys[i] = pointSet.getY(ids[i]);
+        }
+
+        if (weights == null) {
+            this.weights = null;
+        } else {
+            this.weights = new double[size];
+            for (int i = 0; i < size; i++) {
+                this.weights[i] = weights[ids[i]];
             }
         }
 
-        RangeTreeNode rightBranch = splitNode.getRightSubtree();
-        FractionalCascadingKey rightKey = splitKey.getRightChild();
-        while (rightBranch != null && rightKey != null) {
-            if (rightBranch.getPosition() > xMax) {
-                if (rightBranch.isLeafNode()) {
-                    break;
+        final FractionalCascading associatedTree = new FractionalCascading(ys, sortIndexes(ys, pool, sequentialCutoff));
+        if (size == 0) {
+            this.root = null;
+        } else if (pool == null) {
+            this.root = constructRangeTree(0, size, associatedTree);
+        } else {
+            this.root = pool.invoke(new ConstructionTask(0, size, associatedTree, Math.max(sequentialCutoff, 1)));
+        }
+
+        if (Metrics.ENABLED) {
+            Metrics.RANGE_TREE_BUILD.record(System.nanoTime() - start, Math.max(0, 2 * size - 1), 0, 0, size, size);
+        }
+    }
+
+    @Override
+    public void search(final Window window, final PointConsumer consumer) {
+        searchIds(window, id -> consumer.accept(pointSet.get(id)));
+    }
+
+    @Override
+    public void searchIds(final Window window, final IdConsumer consumer) {
+        if (!Metrics.ENABLED) {
+            visitCanonicalSubtrees(window, (node, startIndex, endIndex, lower, upper) -> node.report(lower, upper, ids, consumer));
+            return;
+        }
+
+        // every key of a canonical subtree between the keys is inside the window, only the end keys are examined in vain
+        final long start = System.nanoTime();
+        final int[] subtrees = new int[1];
+        final long[] counts = new long[2];
+        final int nodesVisited = visitCanonicalSubtrees(window, (node, startIndex, endIndex, lower, upper) -> {
+            subtrees[0]++;
+            node.report(lower, upper, ids, consumer, counts);
+        });
+        Metrics.RANGE_TREE_SEARCH.record(System.nanoTime() - start, nodesVisited, subtrees[0], 0, counts[0], counts[1]);
+    }
+
+    // only the positions of the keys are read, so no points are recorded as scanned or returned
+    @Override
+    public int count(final Window window) {
+        final long start = Metrics.ENABLED ? System.nanoTime() : 0;
+        final int[] count = new int[2];
+        final int nodesVisited = visitCanonicalSubtrees(window, (node, startIndex, endIndex, lower, upper) -> {
+            count[0] += node.count(lower, upper);
+            count[1]++;
+        });
+        if (Metrics.ENABLED) {
+            Metrics.RANGE_TREE_COUNT.record(System.nanoTime() - start, nodesVisited, count[1], 0, 0, 0);
+        }
+        return count[0];
+    }
+
+    @Override
+    public void searchRadius(final Point center, final double radius, final PointConsumer consumer) {
+        searchRadiusIds(center, radius, id -> consumer.accept(pointSet.get(id)));
+    }
+
+    /*
+     * Searches the bounding square of the circle. The points a canonical subtree reports lie in the box of its x-range
+     * and the y of its first and last reported key, when all four corners of that box lie in the circle the points are
+     * reported without computing their distance. The counts of the metrics are only allocated when they are enabled.
+     */
+    public void searchRadiusIds(final Point center, final double radius, final IdConsumer consumer) {
+        final long start = Metrics.ENABLED ? System.nanoTime() : 0;
+        final double cx = center.getX();
+        final double cy = center.getY();
+        final double squaredRadius = radius * radius;
+        final Window square = new Window(cx - radius, cx + radius, cy - radius, cy + radius);
+
+        // the canonical subtrees, the scanned and the returned points
+        final long[] counts = Metrics.ENABLED ? new long[3] : null;
+        final int nodesVisited = visitCanonicalSubtrees(square, (node, startIndex, endIndex, lower, upper) -> {
+            final int from = node.index(lower);
+            final int to = node.index(upper);
+            if (Metrics.ENABLED) {
+                counts[0]++;
+                counts[1] += to - from;
+            }
+            if (from == to) {
+                return;
+            }
+
+            final double dx = Math.max(cx - xs[startIndex], xs[endIndex - 1] - cx);
+            final double dy = Math.max(cy - node.y(from), node.y(to - 1) - cy);
+            if (dx * dx + dy * dy <= squaredRadius) {
+                node.report(lower, upper, ids, consumer);
+                if (Metrics.ENABLED) {
+                    counts[2] += to - from;
                 }
-                rightBranch = rightBranch.getLeftSubtree();
-                rightKey = rightKey.getLeftChild();
-            } else if (rightBranch.getPosition() < xMax) {
+                return;
+            }
 
-                if (rightBranch.getLeftSubtree() != null) {
-                    points.addAll(rightBranch.getLeftSubtree().report(rightKey.getLeftChild(), window));
-                } else if (rightBranch.isLeafNode()) {
-                    points.addAll(rightBranch.report(rightKey, window));
-                    break;
+            for (int i = from; i < to; i++) {
+                final int rank = node.rank(i);
+                final double pointDx = xs[rank] - cx;
+                final double pointDy = node.y(i) - cy;
+                if (pointDx * pointDx + pointDy * pointDy <= squaredRadius) {
+                    consumer.accept(ids[rank]);
+                    if (Metrics.ENABLED) {
+                        counts[2]++;
+                    }
                 }
-                rightBranch = rightBranch.getRightSubtree();
-                rightKey = rightKey.getRightChild();
+            }
+        });
+
+        if (Metrics.ENABLED) {
+            Metrics.RANGE_TREE_RADIUS.record(System.nanoTime() - start, nodesVisited, (int) counts[0], 0, counts[1], counts[2]);
+        }
+    }
+
+    /*
+     * Best-first traversal of the primary tree. The lower bound of a subtree combines the distance to its x-range with
+     * the distance to the nearest y among its keys, found with the cascaded key of the query y. Small subtrees are
+     * scanned outwards from that key in y order until the y distance alone exceeds the k-th nearest distance. The metrics
+     * count the polled nodes as visited, the scanned ones as reported and the offered points as scanned.
+     */
+    public Neighbours nearest(final Point point, final int k) {
+        if (k < 0) {
+            throw new IllegalArgumentException("Expected a non-negative number of neighbours but got " + k);
+        }
+
+        // no more neighbours than points, so a huge k does not size the heap
+        final Neighbours neighbours = new Neighbours(Math.min(k, size()), pointSet);
+        if (root == null || k == 0) {
+            return neighbours;
+        }
+
+        final long start = Metrics.ENABLED ? System.nanoTime() : 0;
+        int nodesVisited = 0;
+        int subtreesScanned = 0;
+        long scanned = 0;
+        final NodeQueue queue = new NodeQueue();
+        offerNode(queue, neighbours, point, root, 0, xs.length, root.rootSearch(point.getY()));
+        while (queue.size > 0 && queue.bounds[0] < neighbours.bound()) {
+            final RangeTreeNode node = queue.nodes[0];
+            final int startIndex = queue.startIndexes[0];
+            final int endIndex = queue.endIndexes[0];
+            final FractionalCascadingKey key = queue.keys[0];
+            queue.poll();
+            nodesVisited++;
+
+            if (endIndex - startIndex <= NEAREST_SCAN_SIZE || node.isLeafNode()) {
+                scanned += scan(node, node.index(key), point, neighbours);
+                subtreesScanned++;
             } else {
-                points.addAll(rightBranch.report(rightKey, window));
-                break;
+                final int leftEndIndex = leftEndIndex(startIndex, endIndex);
+                offerNode(queue, neighbours, point, node.getLeftSubtree(), startIndex, leftEndIndex, left(key));
+                offerNode(queue, neighbours, point, node.getRightSubtree(), leftEndIndex, endIndex, right(key));
             }
         }
 
-        return points;
+        if (Metrics.ENABLED) {
+            Metrics.RANGE_TREE_NEAREST.record(System.nanoTime() - start, nodesVisited, subtreesScanned, 0, scanned, neighbours.size());
+        }
+        return neighbours;
     }
 
-    private SplitNodeResult findSplitNode(final Window window) {
-        RangeTreeNode currentNode = this.root;
-        FractionalCascadingKey fractionalCascadingKey = currentNode.rootSearch(window.getYMin());
+    private void offerNode(final NodeQueue queue,
+                           final Neighbours neighbours,
+                           final Point point,
+                           final RangeTreeNode node,
+                           final int startIndex,
+                           final int endIndex,
+                           final FractionalCascadingKey key) {
+        final double dx = Math.max(0, Math.max(xs[startIndex] - point.getX(), point.getX() - xs[endIndex - 1]));
+
+        // the key is the first with y >= the query y, the key before it is the last one below
+        final int index = node.index(key);
+        double dy = Double.POSITIVE_INFINITY;
+        if (index < node.size()) {
+            dy = node.y(index) - point.getY();
+        }
+        if (index > 0) {
+            dy = Math.min(dy, point.getY() - node.y(index - 1));
+        }
 
-        while (currentNode.compareTo(window.getXMin(), window.getXMax()) != 0) {
-            if (currentNode.compareTo(window.getXMin(), window.getXMax()) > 0) {
-                currentNode = currentNode.getRightSubtree();
-                fractionalCascadingKey = fractionalCascadingKey.getRightChild();
+        final double bound = dx * dx + dy * dy;
+        if (bound < neighbours.bound()) {
+            queue.add(bound, node, startIndex, endIndex, key);
+        }
+    }
+
+    // returns the number of points offered to the neighbours
+    private int scan(final RangeTreeNode node, final int index, final Point point, final Neighbours neighbours) {
+        int offered = 0;
+        int above = index;
+        int below = index - 1;
+        double dyAbove = above < node.size() ? node.y(above) - point.getY() : Double.POSITIVE_INFINITY;
+        double dyBelow = below >= 0 ? point.getY() - node.y(below) : Double.POSITIVE_INFINITY;
+        while (true) {
+            final int next;
+            final double dy;
+            if (dyAbove <= dyBelow) {
+                next = above++;
+                dy = dyAbove;
+                dyAbove = above < node.size() ? node.y(above) - point.getY() : Double.POSITIVE_INFINITY;
             } else {
-                currentNode = currentNode.getLeftSubtree();
-                fractionalCascadingKey = fractionalCascadingKey.getLeftChild();
+                next = below--;
+                dy = dyBelow;
+                dyBelow = below >= 0 ? point.getY() - node.y(below) : Double.POSITIVE_INFINITY;
+            }
+
+            // also ends the scan once both directions are exhausted
+            if (dy * dy >= neighbours.bound()) {
+                return offered;
             }
+
+            final int rank = node.rank(next);
+            final double dx = xs[rank] - point.getX();
+            neighbours.offer(dx * dx + dy * dy, ids[rank], null);
+            offered++;
         }
+    }
 
-        return new SplitNodeResult(currentNode, fractionalCascadingKey);
+    public double sum(final Window window) {
+        checkWeighted();
+        final double[] sum = new double[1];
+        visitCanonicalSubtrees(window, (node, startIndex, endIndex, lower, upper) -> sum[0] += node.sum(lower, upper));
+        return sum[0];
     }
 
-    private List<IndexedPoint> sortPointsOnY(final List<Point> points) {
-        final List<IndexedPoint> sortedPoints = new ArrayList<>(points.size());
-        int i = 0;
-        for (final Point point : points) {
-            sortedPoints.add(new IndexedPoint(i, point));
-            i += 1;
-        }
+    // positive infinity if the window is empty
+    public double min(final Window window) {
+        checkWeighted();
+        final double[] min = {Double.POSITIVE_INFINITY};
+        visitCanonicalSubtrees(window, (node, startIndex, endIndex, lower, upper) -> min[0] = Math.min(min[0], node.min(lower, upper)));
+        return min[0];
+    }
 
-        sortedPoints.sort(Comparator.comparingDouble(o -> o.getPoint().getY()));
-        return sortedPoints;
+    // negative infinity if the window is empty
+    public double max(final Window window) {
+        checkWeighted();
+        final double[] max = {Double.NEGATIVE_INFINITY};
+        visitCanonicalSubtrees(window, (node, startIndex, endIndex, lower, upper) -> max[0] = Math.max(max[0], node.max(lower, upper)));
+        return max[0];
     }
 
-    private List<IndexedPoint> constructYSubset(final int startIndex, final int endIndex, final List<IndexedPoint> ySubset) {
-        final List<IndexedPoint> result = new ArrayList<>();
-        for (final IndexedPoint indexedPoint : ySubset) {
-            if (startIndex <= indexedPoint.getIndex() && indexedPoint.getIndex() < endIndex) {
-                result.add(indexedPoint);
+    public int size() {
+        return ids.length;
+    }
+
+    // the points of the tree sorted on x
+    List<Point> points() {
+        return new AbstractList<Point>() {
+            @Override
+            public Point get(final int index) {
+                return pointSet.get(ids[index]);
+            }
+
+            @Override
+            public int size() {
+                return ids.length;
+            }
+        };
+    }
+
+    private void checkWeighted() {
+        if (weights == null) {
+            throw new IllegalStateException("The range tree was constructed without weights");
+        }
+    }
+
+    /*
+     * Visits the canonical subtrees of the window together with the first key with y >= yMin and the first key with
+     * y > yMax, both found with fractional cascading. The canonical subtrees are chosen on x-rank, so they only contain
+     * points inside [xMin, xMax] and the keys in between are exactly the points inside the window. Returns the number
+     * of nodes of the primary tree the search went through, the canonical subtrees included.
+     */
+    private int visitCanonicalSubtrees(final Window window, final CanonicalSubtreeVisitor visitor) {
+        if (root == null) {
+            return 0;
+        }
+
+        final int lo = SortUtils.lowerBound(xs, 0, xs.length, window.getXMin());
+        final int hi = SortUtils.upperBound(xs, 0, xs.length, window.getXMax());
+        if (lo >= hi) {
+            return 0;
+        }
+
+        // a subtree without keys in [yMin, yMax] has the same lower and upper key, and so do all its descendants
+        RangeTreeNode splitNode = root;
+        FractionalCascadingKey splitLower = root.rootSearch(window.getYMin());
+        FractionalCascadingKey splitUpper = root.rootSearchAbove(window.getYMax());
+        int startIndex = 0;
+        int endIndex = xs.length;
+        int nodesVisited = 1;
+        while (splitLower != splitUpper && !splitNode.isLeafNode()) {
+            final int leftEndIndex = leftEndIndex(startIndex, endIndex);
+            if (hi <= leftEndIndex) {
+                splitNode = splitNode.getLeftSubtree();
+                splitLower = left(splitLower);
+                splitUpper = left(splitUpper);
+                endIndex = leftEndIndex;
+            } else if (lo >= leftEndIndex) {
+                splitNode = splitNode.getRightSubtree();
+                splitLower = right(splitLower);
+                splitUpper = right(splitUpper);
+                startIndex = leftEndIndex;
+            } else {
+                break;
+            }
+            nodesVisited++;
+        }
+
+        if (splitLower == splitUpper) {
+            return nodesVisited;
+        }
+
+        if (splitNode.isLeafNode()) {
+            visitor.visit(splitNode, startIndex, endIndex, splitLower, splitUpper);
+            return nodesVisited;
+        }
+
+        final int splitEndIndex = leftEndIndex(startIndex, endIndex);
+
+        // left branch
+        RangeTreeNode leftBranch = splitNode.getLeftSubtree();
+        FractionalCascadingKey leftLower = left(splitLower);
+        FractionalCascadingKey leftUpper = left(splitUpper);
+        int leftStartIndex = startIndex;
+        int leftEndIndex = splitEndIndex;
+        while (leftLower != leftUpper) {
+            nodesVisited++;
+            if (lo <= leftStartIndex) {
+                visitor.visit(leftBranch, leftStartIndex, leftEndIndex, leftLower, leftUpper);
+                break;
+            }
+            if (leftBranch.isLeafNode()) {
+                break;
+            }
+
+            final int middle = leftEndIndex(leftStartIndex, leftEndIndex);
+            if (lo < middle) {
+                nodesVisited++;
+                visitor.visit(leftBranch.getRightSubtree(), middle, leftEndIndex, right(leftLower), right(leftUpper));
+                leftBranch = leftBranch.getLeftSubtree();
+                leftLower = left(leftLower);
+                leftUpper = left(leftUpper);
+                leftEndIndex = middle;
+            } else {
+                leftBranch = leftBranch.getRightSubtree();
+                leftLower = right(leftLower);
+                leftUpper = right(leftUpper);
+                leftStartIndex = middle;
+            }
+        }
+
+        // right branch
+        RangeTreeNode rightBranch = splitNode.getRightSubtree();
+        FractionalCascadingKey rightLower = right(splitLower);
+        FractionalCascadingKey rightUpper = right(splitUpper);
+        int rightStartIndex = splitEndIndex;
+        int rightEndIndex = endIndex;
+        while (rightLower != rightUpper) {
+            nodesVisited++;
+            if (rightEndIndex <= hi) {
+                visitor.visit(rightBranch, rightStartIndex, rightEndIndex, rightLower, rightUpper);
+                break;
+            }
+            if (rightBranch.isLeafNode()) {
+                break;
+            }
+
+            final int middle = leftEndIndex(rightStartIndex, rightEndIndex);
+            if (hi > middle) {
+                nodesVisited++;
+                visitor.visit(rightBranch.getLeftSubtree(), rightStartIndex, middle, left(rightLower), left(rightUpper));
+                rightBranch = rightBranch.getRightSubtree();
+                rightLower = right(rightLower);
+                rightUpper = right(rightUpper);
+                rightStartIndex = middle;
+            } else {
+                rightBranch = rightBranch.getLeftSubtree();
+                rightLower = left(rightLower);
+                rightUpper = left(rightUpper);
+                rightEndIndex = middle;
             }
         }
-        return result;
+        return nodesVisited;
     }
 
-    private List<Point> convertToPoints(final List<IndexedPoint> indexedPoints) {
-        return indexedPoints.stream().map(IndexedPoint::getPoint).collect(Collectors.toList());
+    private static FractionalCascadingKey left(final FractionalCascadingKey key) {
+        return key == null ? null : key.getLeftChild();
     }
 
-    private RangeTreeNode constructRangeTree(final int startIndex,
-                                             final int endIndex,
-                                             final FractionalCascading parent,
-                                             final List<IndexedPoint> parentYPoints,
-                                             final boolean isLhs) {
-        final List<IndexedPoint> currentYIndexedPoints = constructYSubset(startIndex, endIndex, parentYPoints);
-        final List<Point> currentYPoints = convertToPoints(currentYIndexedPoints);
-        final FractionalCascading current = parent == null ? new FractionalCascading(currentYPoints) : new FractionalCascading(parent, currentYPoints, isLhs);
+    private static FractionalCascadingKey right(final FractionalCascadingKey key) {
+        return key == null ? null : key.getRightChild();
+    }
 
-        if (currentYPoints.size() == 1) {
-            return new RangeTreeNode(currentYPoints.get(0).getX(), current);
-        } else {
-            final int size = endIndex - startIndex;
-            final int median = size % 2 == 0 ? size / 2 - 1 : size / 2;
+    // the left subtree of a node covering [startIndex, endIndex) covers [startIndex, leftEndIndex)
+    private static int leftEndIndex(final int startIndex, final int endIndex) {
+        final int size = endIndex - startIndex;
+        final int median = size % 2 == 0 ? size / 2 - 1 : size / 2;
+        return startIndex + median + 1;
+    }
 
-            final int leftEndIndex = startIndex + median + 1;
+    private static int[] sortIndexes(final double[] keys, final ForkJoinPool pool, final int sequentialCutoff) {
+        return pool == null ? SortUtils.sortIndexes(keys) : SortUtils.sortIndexes(keys, pool, Math.max(sequentialCutoff, 1));
+    }
 
-            final RangeTreeNode rangeTreeNode = new RangeTreeNode(xPoints.get(median + startIndex).getX(), current);
-            rangeTreeNode.setLeftSubtree(constructRangeTree(startIndex, leftEndIndex, current, currentYIndexedPoints, true));
-            rangeTreeNode.setRightSubtree(constructRangeTree(leftEndIndex, endIndex, current, currentYIndexedPoints, false));
+    private RangeTreeNode constructRangeTree(final int startIndex, final int endIndex, final FractionalCascading current) {
+        if (weights != null) {
+            current.aggregate(weights);
+        }
 
-            return rangeTreeNode;
+        if (endIndex - startIndex == 1) {
+            return new RangeTreeNode(xs[startIndex], current);
         }
+
+        final int leftEndIndex = leftEndIndex(startIndex, endIndex);
+        current.split(startIndex, leftEndIndex);
+
+        final RangeTreeNode rangeTreeNode = new RangeTreeNode(xs[leftEndIndex - 1], current);
+        rangeTreeNode.setLeftSubtree(constructRangeTree(startIndex, leftEndIndex, current.getLeftChild()));
+        rangeTreeNode.setRightSubtree(constructRangeTree(leftEndIndex, endIndex, current.getRightChild()));
+
+        return rangeTreeNode;
     }
 
-    @Data
-    @AllArgsConstructor
-    private static class SplitNodeResult {
-        private final RangeTreeNode node;
-        private final FractionalCascadingKey key;
+    @FunctionalInterface
+    private interface CanonicalSubtreeVisitor {
+        // the node covers the x-ranks [startIndex, endIndex), lower is the first key with y >= yMin, upper the first key
+        // with y > yMax, null if there is none
+        void visit(RangeTreeNode node, int startIndex, int endIndex, FractionalCascadingKey lower, FractionalCascadingKey upper);
     }
 
-    @Data
-    @AllArgsConstructor
-    private static class IndexedPoint {
-        private final int index;
-        private final Point point;
+    // binary min-heap of subtrees on the squared lower bound of their distance to the query point
+    private static class NodeQueue {
+        private double[] bounds = new double[16];
+        private RangeTreeNode[] nodes = new RangeTreeNode[16];
+        private int[] startIndexes = new int[16];
+        private int[] endIndexes = new int[16];
+        private FractionalCascadingKey[] keys = new FractionalCascadingKey[16];
+        private int size;
+
+        void add(final double bound, final RangeTreeNode node, final int startIndex, final int endIndex, final FractionalCascadingKey key) {
+            if (size == bounds.length) {
+                bounds = Arrays.copyOf(bounds, 2 * size);
+                nodes = Arrays.copyOf(nodes, 2 * size);
+                startIndexes = Arrays.copyOf(startIndexes, 2 * size);
+                endIndexes = Arrays.copyOf(endIndexes, 2 * size);
+                keys = Arrays.copyOf(keys, 2 * size);
+            }
+
+            int child = size++;
+            while (child > 0) {
+                final int parent = (child - 1) >>> 1;
+                if (bounds[parent] <= bound) {
+                    break;
+                }
+                set(child, parent);
+                child = parent;
+            }
+            bounds[child] = bound;
+            nodes[child] = node;
+            startIndexes[child] = startIndex;
+            endIndexes[child] = endIndex;
+            keys[child] = key;
+        }
+
+        // removes the head, the caller reads it before polling
+        void poll() {
+            size--;
+            int parent = 0;
+            while (true) {
+                int smallest = size;
+                final int left = 2 * parent + 1;
+                final int right = left + 1;
+                if (left < size && bounds[left] < bounds[smallest]) {
+                    smallest = left;
+                }
+                if (right < size && bounds[right] < bounds[smallest]) {
+                    smallest = right;
+                }
+                if (smallest == size) {
+                    break;
+                }
+                set(parent, smallest);
+                parent = smallest;
+            }
+            set(parent, size);
+            nodes[size] = null;
+            keys[size] = null;
+        }
+
+        private void set(final int target, final int source) {
+            bounds[target] = bounds[source];
+            nodes[target] = nodes[source];
+            startIndexes[target] = startIndexes[source];
+            endIndexes[target] = endIndexes[source];
+            keys[target] = keys[source];
+        }
     }
 
-    public static void main(String[] args) {
-        final Point a = new Point(0, 0);
-        final Point b = new Point(1, 1);
-        final Point c = new Point(2, 2);
-        final Point d = new Point(3, 3);
-        final Point e = new Point(4, 4);
+    private class ConstructionTask extends RecursiveTask<RangeTreeNode> {
+        private final int startIndex;
+        private final int endIndex;
+        private final FractionalCascading current;
+        private final int sequentialCutoff;
+
+        ConstructionTask(final int startIndex, final int endIndex, final FractionalCascading current, final int sequentialCutoff) {
+            this.startIndex = startIndex;
+            this.endIndex = endIndex;
+            this.current = current;
+            this.sequentialCutoff = sequentialCutoff;
+        }
 
-        final List<Point> points = new ArrayList<>();
-        points.add(a);
-        points.add(b);
-        points.add(c);
-        points.add(d);
-        points.add(e);
+        @Override
+        protected RangeTreeNode compute() {
+            final int size = endIndex - startIndex;
+            if (size <= sequentialCutoff) {
+                return constructRangeTree(startIndex, endIndex, current);
+            }
 
-        final RangeTree rangeTree = new RangeTree(points);
+            if (weights != null) {
+                current.aggregate(weights);
+            }
+
+            final int leftEndIndex = leftEndIndex(startIndex, endIndex);
+            current.split(startIndex, leftEndIndex);
 
-        final Window window = new Window(0, 4, 0, 3);
-        final List<Point> query = rangeTree.search(window);
+            final RangeTreeNode rangeTreeNode = new RangeTreeNode(xs[leftEndIndex - 1], current);
+            final ConstructionTask left = new ConstructionTask(startIndex, leftEndIndex, current.getLeftChild(), sequentialCutoff);
+            final ConstructionTask right = new ConstructionTask(leftEndIndex, endIndex, current.getRightChild(), sequentialCutoff);
+            left.fork();
+            rangeTreeNode.setRightSubtree(right.compute());
+            rangeTreeNode.setLeftSubtree(left.join());
 
-        assert query.size() == 4;
+            return rangeTreeNode;
+        }
     }
 }
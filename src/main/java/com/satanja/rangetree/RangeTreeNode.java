@@ -1,7 +1,5 @@
 package com.satanja.rangetree;
 
-import java.util.List;
-
 class RangeTreeNode {
 
     private final double position;
@@ -39,23 +37,56 @@ class RangeTreeNode {
         return associatedTree.rootSearch(min);
     }
 
-    int compareTo(final double min, final double max) {
-        if (min <= position && position <= max) {
-            return 0;
-        }
-
-        if (position < min) {
-            return 1;
-        }
-
-        return -1;
+    FractionalCascadingKey rootSearchAbove(final double max) {
+        return associatedTree.rootSearchAbove(max);
     }
 
     boolean isLeafNode() {
         return leftSubtree == null && rightSubtree == null;
     }
 
-    List<Point> report(final FractionalCascadingKey fractionalCascadingKey, final Window window) {
-        return associatedTree.report(fractionalCascadingKey, window);
+    int report(final FractionalCascadingKey startKey, final FractionalCascadingKey endKey, final int[] ids, final IdConsumer consumer) {
+        return associatedTree.report(startKey, endKey, ids, consumer);
+    }
+
+    void report(final FractionalCascadingKey startKey,
+                final FractionalCascadingKey endKey,
+                final int[] ids,
+                final IdConsumer consumer,
+                final long[] counts) {
+        associatedTree.report(startKey, endKey, ids, consumer, counts);
+    }
+
+    int size() {
+        return associatedTree.size();
+    }
+
+    int index(final FractionalCascadingKey key) {
+        return associatedTree.index(key);
+    }
+
+    // x-rank of the key at the index, the keys are sorted on y
+    int rank(final int index) {
+        return associatedTree.rank(index);
+    }
+
+    double y(final int index) {
+        return associatedTree.y(index);
+    }
+
+    int count(final FractionalCascadingKey startKey, final FractionalCascadingKey endKey) {
+        return associatedTree.index(endKey) - associatedTree.index(startKey);
+    }
+
+    double sum(final FractionalCascadingKey startKey, final FractionalCascadingKey endKey) {
+        return associatedTree.sum(startKey, endKey);
+    }
+
+    double min(final FractionalCascadingKey startKey, final FractionalCascadingKey endKey) {
+        return associatedTree.min(startKey, endKey);
+    }
+
+    double max(final FractionalCascadingKey startKey, final FractionalCascadingKey endKey) {
+        return associatedTree.max(startKey, endKey);
     }
 }
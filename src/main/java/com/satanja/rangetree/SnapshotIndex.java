@@ -0,0 +1,156 @@
+package com.satanja.rangetree;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Serves queries from a published index while a new one is built elsewhere. The current snapshot sits in an atomic
+ * reference and {@link #publish} swaps in a fully constructed index in one step, so readers never block and never see
+ * a half-built index. Every snapshot counts its readers: a retired snapshot is released once its last reader is done,
+ * and an index that is {@link AutoCloseable} is closed then.
+ * <p>
+ * A published index is treated as immutable. {@link RangeTree}, {@link FlatRangeTree} and the packed grids never
+ * change after construction, an index with inserts or deletes must not be modified once it is published.
+ */
+public class SnapshotIndex<T extends SpatialIndex> implements SpatialIndex, AutoCloseable {
+
+    private final AtomicReference<Snapshot<T>> current;
+    private final Consumer<? super T> release;
+    private final AtomicInteger released = new AtomicInteger();
+
+    public SnapshotIndex(final T index) {
+        this(index, SnapshotIndex::closeIfCloseable);
+    }
+
+    // release is called once for every retired index, on the thread that drops the last reference to it
+    public SnapshotIndex(final T index, final Consumer<? super T> release) {
+        this.release = release;
+        this.current = new AtomicReference<>(new Snapshot<>(this, index, 0));
+    }
+
+    /*
+     * The returned snapshot stays valid until it is closed, even if a newer index is published meanwhile. A reader
+     * only retries when the snapshot it read was retired and released in between, so acquiring is lock-free.
+     */
+    public Snapshot<T> acquire() {
+        while (true) {
+            final Snapshot<T> snapshot = current.get();
+            if (snapshot == null) {
+                throw new IllegalStateException("The index was closed");
+            }
+            if (snapshot.retain()) {
+                return snapshot;
+            }
+        }
+    }
+
+    // makes the index visible to new readers and retires the previous one
+    public void publish(final T index) {
+        final Snapshot<T> previous = current.getAndUpdate(snapshot -> {
+            if (snapshot == null) {
+                throw new IllegalStateException("The index was closed");
+            }
+            return new Snapshot<>(this, index, snapshot.version + 1);
+        });
+        previous.close();
+    }
+
+    // the number of retired snapshots that have been released
+    public int releasedCount() {
+        return released.get();
+    }
+
+    @Override
+    public void search(final Window window, final PointConsumer consumer) {
+        try (Snapshot<T> snapshot = acquire()) {
+            snapshot.index.search(window, consumer);
+        }
+    }
+
+    @Override
+    public void searchRadius(final Point center, final double radius, final PointConsumer consumer) {
+        try (Snapshot<T> snapshot = acquire()) {
+            snapshot.index.searchRadius(center, radius, consumer);
+        }
+    }
+
+    @Override
+    public int count(final Window window) {
+        try (Snapshot<T> snapshot = acquire()) {
+            return snapshot.index.count(window);
+        }
+    }
+
+    // retires the current index, it is released once the readers still holding it are done
+    @Override
+    public void close() {
+        final Snapshot<T> snapshot = current.getAndSet(null);
+        if (snapshot != null) {
+            snapshot.close();
+        }
+    }
+
+    private static void closeIfCloseable(final SpatialIndex index) {
+        if (index instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) index).close();
+            } catch (final Exception e) {
+                throw new IllegalStateException("Could not release the index", e);
+            }
+        }
+    }
+
+    public static final class Snapshot<T extends SpatialIndex> implements AutoCloseable {
+        private final SnapshotIndex<T> owner;
+        private final T index;
+        private final long version;
+
+        // the holder owns one reference while the snapshot is current, every reader owns one more
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        private Snapshot(final SnapshotIndex<T> owner, final T index, final long version) {
+            this.owner = owner;
+            this.index = index;
+            this.version = version;
+        }
+
+        public T index() {
+            return index;
+        }
+
+        // 0 for the index the SnapshotIndex was constructed with, one more for every index published after it
+        public long version() {
+            return version;
+        }
+
+        private boolean retain() {
+            while (true) {
+                final int count = references.get();
+                if (count == 0) {
+                    return false;
+                }
+                if (references.compareAndSet(count, count + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        // drops one reference, closing a snapshot more often than it was acquired is an error
+        @Override
+        public void close() {
+            int count;
+            do {
+                count = references.get();
+                if (count == 0) {
+                    throw new IllegalStateException("The snapshot was already released");
+                }
+            } while (!references.compareAndSet(count, count - 1));
+
+            if (count == 1) {
+                owner.released.incrementAndGet();
+                owner.release.accept(index);
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.satanja.rangetree;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+public interface SpatialIndex {
+
+    // reports every point inside the window to the consumer, without collecting them first
+    void search(Window window, PointConsumer consumer);
+
+    default List<Point> search(final Window window) {
+        final List<Point> result = new ArrayList<>();
+        search(window, result::add);
+        return result;
+    }
+
+    // result i holds the points inside windows.get(i), the windows are searched in parallel on the common pool
+    default List<List<Point>> searchAll(final List<Window> windows) {
+        return searchAll(windows, ForkJoinPool.commonPool());
+    }
+
+    // a null pool searches the batch on the calling thread
+    default List<List<Point>> searchAll(final List<Window> windows, final ForkJoinPool pool) {
+        return BatchSearch.searchAll(this, windows, pool);
+    }
+
+    // reports every point inside windows.get(i) together with i, the windows are searched in parallel on the common pool
+    default void join(final List<Window> windows, final WindowPointConsumer consumer) {
+        join(windows, consumer, ForkJoinPool.commonPool());
+    }
+
+    // the consumer has to be thread-safe unless the pool is null
+    default void join(final List<Window> windows, final WindowPointConsumer consumer, final ForkJoinPool pool) {
+        BatchSearch.join(this, windows, consumer, pool);
+    }
+
+    // reports every point within the radius of the center, by default by filtering the bounding square of the circle
+    default void searchRadius(final Point center, final double radius, final PointConsumer consumer) {
+        final double squaredRadius = radius * radius;
+        final Window square = new Window(center.getX() - radius, center.getX() + radius, center.getY() - radius, center.getY() + radius);
+        search(square, point -> {
+            final double dx = point.getX() - center.getX();
+            final double dy = point.getY() - center.getY();
+            if (dx * dx + dy * dy <= squaredRadius) {
+                consumer.accept(point);
+            }
+        });
+    }
+
+    default List<Point> searchRadius(final Point center, final double radius) {
+        final List<Point> result = new ArrayList<>();
+        searchRadius(center, radius, result::add);
+        return result;
+    }
+
+    default int count(final Window window) {
+        final int[] count = new int[1];
+        search(window, point -> count[0]++);
+        return count[0];
+    }
+}
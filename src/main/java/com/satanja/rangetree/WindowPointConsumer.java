@@ -0,0 +1,7 @@
+package com.satanja.rangetree;
+
+// receives a point together with the index of a window that contains it, parallel joins call it from several threads
+@FunctionalInterface
+public interface WindowPointConsumer {
+    void accept(int windowIndex, Point point);
+}
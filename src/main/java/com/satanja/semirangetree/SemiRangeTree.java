@@ -1,40 +1,102 @@
 package com.satanja.semirangetree;
 
+import com.satanja.rangetree.IdConsumer;
+import com.satanja.rangetree.IdIndex;
 import com.satanja.rangetree.Point;
+import com.satanja.rangetree.PointConsumer;
+import com.satanja.rangetree.PointSet;
+import com.satanja.rangetree.SpatialIndex;
 import com.satanja.rangetree.Window;
+import com.satanja.util.SortUtils;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.NavigableMap;
-import java.util.TreeMap;
 
-public class SemiRangeTree {
+/*
+ * The distinct x coordinates in sorted order, each with the y coordinates of its points in sorted order, the layout of
+ * a sorted map of sorted maps kept in primitive arrays. A search binary searches the x range and then the y range of
+ * every x in it.
+ */
+public class SemiRangeTree implements SpatialIndex, IdIndex {
 
-    private final NavigableMap<Double, NavigableMap<Double, Point>> tree;
+    private final PointSet pointSet;
+
+    // the distinct x coordinates, the points of xs[g] are at positions [starts[g], starts[g + 1])
+    private final double[] xs;
+    private final int[] starts;
+
+    // the y coordinates and ids of the points, sorted on x and then on y
+    private final double[] ys;
+    private final int[] ids;
 
     public SemiRangeTree(final List<Point> points) {
-        this.tree = new TreeMap<>();
-        for (final Point point : points) {
-            if (tree.containsKey(point.getX())) {
-                final NavigableMap<Double, Point> innerTree = tree.get(point.getX());
-                innerTree.put(point.getY(), point);
-            } else {
-                final NavigableMap<Double, Point> innerTree = new TreeMap<>();
-                innerTree.put(point.getY(), point);
-                tree.put(point.getX(), innerTree);
+        this(PointSet.of(points));
+    }
+
+    public SemiRangeTree(final PointSet pointSet) {
+        this.pointSet = pointSet;
+        final int size = pointSet.size();
+
+        final double[] unsortedXs = new double[size];
+        for (int i = 0; i < size; i++) {
+            unsortedXs[i] = pointSet.getX(i);
+        }
+        final int[] xOrder = SortUtils.sortIndexes(unsortedXs);
+
+        this.ys = new double[size];
+        this.ids = new int[size];
+        final double[] groupXs = new double[size];
+        final int[] groupStarts = new int[size + 1];
+        int groups = 0;
+        for (int start = 0; start < size; ) {
+            final double x = unsortedXs[xOrder[start]];
+            int end = start + 1;
+            while (end < size && unsortedXs[xOrder[end]] == x) {
+                end++;
+            }
+
+            final double[] groupYs = new double[end - start];
+            for (int i = start; i < end; i++) {
+                groupYs[i - start] = pointSet.getY(xOrder[i]);
+            }
+            final int[] yOrder = SortUtils.sortIndexes(groupYs);
+            for (int i = 0; i < yOrder.length; i++) {
+                ys[start + i] = groupYs[yOrder[i]];
+                ids[start + i] = xOrder[start + yOrder[i]];
             }
+
+            groupXs[groups] = x;
+            groupStarts[groups] = start;
+            groups++;
+            start = end;
         }
+        groupStarts[groups] = size;
+
+        this.xs = Arrays.copyOf(groupXs, groups);
+        this.starts = Arrays.copyOf(groupStarts, groups + 1);
     }
 
-    public List<Point> search(final Window window) {
-        final List<Point> result = new ArrayList<>();
+    @Override
+    public void search(final Window window, final PointConsumer consumer) {
+        searchIds(window, id -> consumer.accept(pointSet.get(id)));
+    }
 
-        final NavigableMap<Double, NavigableMap<Double, Point>> subset = tree.subMap(window.getXMin(), true, window.getXMax(), true);
-        for (final NavigableMap<Double, Point> innerTree : subset.values()) {
-            final NavigableMap<Double, Point> points = innerTree.subMap(window.getYMin(), true, window.getYMax(), true);
-            result.addAll(points.values());
+    @Override
+    public void searchIds(final Window window, final IdConsumer consumer) {
+        for (int g = SortUtils.lowerBound(xs, 0, xs.length, window.getXMin()); g < xs.length && xs[g] <= window.getXMax(); g++) {
+            for (int i = SortUtils.lowerBound(ys, starts[g], starts[g + 1], window.getYMin()); i < starts[g + 1] && ys[i] <= window.getYMax(); i++) {
+                consumer.accept(ids[i]);
+            }
         }
+    }
 
-        return result;
+    @Override
+    public int count(final Window window) {
+        int count = 0;
+        for (int g = SortUtils.lowerBound(xs, 0, xs.length, window.getXMin()); g < xs.length && xs[g] <= window.getXMax(); g++) {
+            final int from = SortUtils.lowerBound(ys, starts[g], starts[g + 1], window.getYMin());
+            count += Math.max(0, SortUtils.upperBound(ys, from, starts[g + 1], window.getYMax()) - from);
+        }
+        return count;
     }
 }
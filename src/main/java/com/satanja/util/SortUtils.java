@@ -0,0 +1,147 @@
+package com.satanja.util;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+public class SortUtils {
+
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+
+    // stable, so indexes with equal keys keep their original relative order
+    public static int[] sortIndexes(final double[] keys) {
+        final int[] indexes = identity(keys.length);
+        sortRange(keys, indexes, new int[keys.length], 0, keys.length);
+        return indexes;
+    }
+
+    // same order as sortIndexes, with both halves of every range above the cutoff sorted in parallel
+    public static int[] sortIndexes(final double[] keys, final ForkJoinPool pool, final int sequentialCutoff) {
+        final int[] indexes = identity(keys.length);
+        pool.invoke(new SortTask(keys, indexes, new int[keys.length], 0, keys.length, Math.max(sequentialCutoff, 1)));
+        return indexes;
+    }
+
+    // first position in [from, to) of the sorted keys with a key >= min
+    public static int lowerBound(final double[] keys, final int from, final int to, final double min) {
+        int lo = from;
+        int hi = to;
+        while (lo < hi) {
+            final int middle = (lo + hi) >>> 1;
+            if (keys[middle] < min) {
+                lo = middle + 1;
+            } else {
+                hi = middle;
+            }
+        }
+        return lo;
+    }
+
+    // first position in [from, to) of the sorted keys with a key > max
+    public static int upperBound(final double[] keys, final int from, final int to, final double max) {
+        int lo = from;
+        int hi = to;
+        while (lo < hi) {
+            final int middle = (lo + hi) >>> 1;
+            if (keys[middle] <= max) {
+                lo = middle + 1;
+            } else {
+                hi = middle;
+            }
+        }
+        return lo;
+    }
+
+    private static int[] identity(final int n) {
+        final int[] indexes = new int[n];
+        for (int i = 0; i < n; i++) {
+            indexes[i] = i;
+        }
+        return indexes;
+    }
+
+    private static void sortRange(final double[] keys, final int[] indexes, final int[] buffer, final int start, final int end) {
+        for (int runStart = start; runStart < end; runStart += INSERTION_SORT_THRESHOLD) {
+            insertionSort(keys, indexes, runStart, Math.min(runStart + INSERTION_SORT_THRESHOLD, end));
+        }
+
+        int[] source = indexes;
+        int[] target = buffer;
+        for (int width = INSERTION_SORT_THRESHOLD; width < end - start; width *= 2) {
+            for (int runStart = start; runStart < end; runStart += 2 * width) {
+                final int middle = Math.min(runStart + width, end);
+                final int runEnd = Math.min(runStart + 2 * width, end);
+                merge(keys, source, target, runStart, middle, runEnd);
+            }
+
+            final int[] temp = source;
+            source = target;
+            target = temp;
+        }
+
+        if (source != indexes) {
+            System.arraycopy(source, start, indexes, start, end - start);
+        }
+    }
+
+    private static void insertionSort(final double[] keys, final int[] indexes, final int start, final int end) {
+        for (int i = start + 1; i < end; i++) {
+            final int index = indexes[i];
+            final double key = keys[index];
+            int j = i - 1;
+            while (j >= start && keys[indexes[j]] > key) {
+                indexes[j + 1] = indexes[j];
+                j--;
+            }
+            indexes[j + 1] = index;
+        }
+    }
+
+    private static void merge(final double[] keys,
+                              final int[] source,
+                              final int[] target,
+                              final int start,
+                              final int middle,
+                              final int end) {
+        int left = start;
+        int right = middle;
+        for (int i = start; i < end; i++) {
+            if (left < middle && (right >= end || keys[source[left]] <= keys[source[right]])) {
+                target[i] = source[left++];
+            } else {
+                target[i] = source[right++];
+            }
+        }
+    }
+
+    private static class SortTask extends RecursiveAction {
+        private final double[] keys;
+        private final int[] indexes;
+        private final int[] buffer;
+        private final int start;
+        private final int end;
+        private final int sequentialCutoff;
+
+        SortTask(final double[] keys, final int[] indexes, final int[] buffer, final int start, final int end, final int sequentialCutoff) {
+            this.keys = keys;
+            this.indexes = indexes;
+            this.buffer = buffer;
+            this.start = start;
+            this.end = end;
+            this.sequentialCutoff = sequentialCutoff;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= sequentialCutoff) {
+                sortRange(keys, indexes, buffer, start, end);
+                return;
+            }
+
+            final int middle = (start + end) >>> 1;
+            invokeAll(new SortTask(keys, indexes, buffer, start, middle, sequentialCutoff),
+                    new SortTask(keys, indexes, buffer, middle, end, sequentialCutoff));
+            merge(keys, indexes, buffer, start, middle, end);
+            System.arraycopy(buffer, start, indexes, start, end - start);
+        }
+    }
+}
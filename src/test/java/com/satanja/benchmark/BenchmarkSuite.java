@@ -0,0 +1,38 @@
+package com.satanja.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.regex.Pattern;
+
+/*
+ * Runs the benchmarks of this package with the GC profiler, which adds the allocation rate and the collections to
+ * every result, and writes the results to benchmark-suite.json unless -rf or -rff say otherwise. The arguments are
+ * ordinary JMH options, for example
+ *
+ *     QueryBenchmark -p distribution=ROADS,CLUSTERED -p index=RANGE_TREE,PACKED_GRID_RANGE -p selectivity=0.001
+ *
+ * restricts the run to one benchmark and a few datasets and indexes.
+ */
+public class BenchmarkSuite {
+
+    public static void main(final String[] args) throws Exception {
+        final String suite = BenchmarkSuite.class.getPackage().getName() + ".";
+        final CommandLineOptions commandLine = new CommandLineOptions(args);
+        final ChainedOptionsBuilder options = new OptionsBuilder()
+                .parent(commandLine)
+                .exclude("^(?!" + Pattern.quote(suite) + ")")
+                .addProfiler(GCProfiler.class);
+        if (commandLine.getIncludes().isEmpty()) {
+            options.include(Pattern.quote(suite));
+        }
+        if (!commandLine.getResult().hasValue() && !commandLine.getResultFormat().hasValue()) {
+            options.resultFormat(ResultFormatType.JSON).result("benchmark-suite.json");
+        }
+        new Runner(options.build()).run();
+    }
+}
@@ -0,0 +1,27 @@
+package com.satanja.benchmark;
+
+import com.satanja.rangetree.SpatialIndex;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// construction only, the dataset is generated once per trial
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Benchmark)
+public class BuildBenchmark {
+
+    @Param
+    public IndexType index;
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int build(final Dataset dataset) throws Exception {
+        final SpatialIndex built = index.build(dataset);
+        final int count = built.count(dataset.windows[0]);
+        IndexType.release(built);
+        return count;
+    }
+}
@@ -0,0 +1,36 @@
+package com.satanja.benchmark;
+
+import com.satanja.rangetree.SpatialIndex;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// like QueryBenchmark, but only counts the points in the window
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Benchmark)
+public class CountBenchmark {
+
+    @Param
+    public IndexType index;
+
+    private SpatialIndex built;
+
+    @Setup(Level.Trial)
+    public void setup(final Dataset dataset) {
+        built = index.build(dataset);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        IndexType.release(built);
+    }
+
+    @Benchmark
+    @BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int count(final Dataset dataset, final Dataset.Cursor cursor) {
+        return built.count(cursor.next(dataset));
+    }
+}
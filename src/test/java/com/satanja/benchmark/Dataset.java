@@ -0,0 +1,62 @@
+package com.satanja.benchmark;
+
+import com.satanja.rangetree.Point;
+import com.satanja.rangetree.PointSet;
+import com.satanja.rangetree.Window;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Random;
+
+/*
+ * The points and query windows of a benchmark. A window is a square around a random point of the dataset whose area
+ * is the selectivity times the area of [-20, 20] x [-20, 20], so on uniform points it holds about that fraction of the
+ * points, and more where the distribution is dense.
+ */
+@State(Scope.Benchmark)
+public class Dataset {
+
+    static final int WINDOW_COUNT = 4096;
+
+    @Param({"100000"})
+    public int input_size;
+
+    @Param
+    public Distribution distribution;
+
+    @Param({"0.00001", "0.001", "0.1"})
+    public double selectivity;
+
+    List<Point> points;
+    PointSet pointSet;
+    Window[] windows;
+
+    // the side of the query windows
+    double windowSize;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        points = distribution.generate(input_size, 0);
+        pointSet = PointSet.of(points);
+
+        windowSize = 40 * Math.sqrt(selectivity);
+        final Random random = new Random(1);
+        windows = new Window[WINDOW_COUNT];
+        for (int i = 0; i < windows.length; i++) {
+            final Point center = points.get(random.nextInt(points.size()));
+            windows[i] = new Window(center.getX() - windowSize / 2, center.getX() + windowSize / 2,
+                    center.getY() - windowSize / 2, center.getY() + windowSize / 2);
+        }
+    }
+
+    // cycles through the windows, one cursor per thread
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next;
+
+        Window next(final Dataset dataset) {
+            next = (next + 1) % WINDOW_COUNT;
+            return dataset.windows[next];
+        }
+    }
+}
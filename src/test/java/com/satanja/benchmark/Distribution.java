@@ -0,0 +1,107 @@
+package com.satanja.benchmark;
+
+import com.satanja.rangetree.Point;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/*
+ * Point distributions of the suite, all roughly inside [-20, 20] x [-20, 20] like PerformanceTest.generate, so that
+ * window sizes mean the same on every dataset.
+ */
+public enum Distribution {
+    UNIFORM {
+        @Override
+        Point next(final Random random, final double[][] shape) {
+            return new Point(random.nextDouble() * 40 - 20, random.nextDouble() * 40 - 20);
+        }
+    },
+    // ten gaussian clusters whose spread ranges from 0.01 to 1
+    CLUSTERED {
+        @Override
+        double[][] shape(final Random random) {
+            final double[][] centers = new double[10][];
+            for (int c = 0; c < centers.length; c++) {
+                centers[c] = new double[]{random.nextDouble() * 30 - 15, random.nextDouble() * 30 - 15, Math.pow(10, random.nextDouble() * 2 - 2)};
+            }
+            return centers;
+        }
+
+        @Override
+        Point next(final Random random, final double[][] centers) {
+            final double[] center = centers[random.nextInt(centers.length)];
+            return new Point(center[0] + random.nextGaussian() * center[2], center[1] + random.nextGaussian() * center[2]);
+        }
+    },
+    GAUSSIAN {
+        @Override
+        Point next(final Random random, final double[][] shape) {
+            return new Point(random.nextGaussian() * 5, random.nextGaussian() * 5);
+        }
+    },
+    // the density grows polynomially towards the lower left corner
+    SKEWED {
+        @Override
+        Point next(final Random random, final double[][] shape) {
+            return new Point(Math.pow(random.nextDouble(), 4) * 40 - 20, Math.pow(random.nextDouble(), 4) * 40 - 20);
+        }
+    },
+    // every point is one of a thousand sites
+    DUPLICATES {
+        @Override
+        double[][] shape(final Random random) {
+            final double[][] sites = new double[1000][];
+            for (int s = 0; s < sites.length; s++) {
+                sites[s] = new double[]{random.nextInt(400) / 10.0 - 20, random.nextInt(400) / 10.0 - 20};
+            }
+            return sites;
+        }
+
+        @Override
+        Point next(final Random random, final double[][] sites) {
+            final double[] site = sites[random.nextInt(sites.length)];
+            return new Point(site[0], site[1]);
+        }
+    },
+    // points along a street grid and a few long diagonal roads, a little off the center line
+    ROADS {
+        @Override
+        double[][] shape(final Random random) {
+            final double[][] roads = new double[60][];
+            for (int r = 0; r < 40; r++) {
+                final double position = random.nextInt(40) - 19.5;
+                roads[r] = r % 2 == 0 ? new double[]{position, -20, position, 20} : new double[]{-20, position, 20, position};
+            }
+            for (int r = 40; r < roads.length; r++) {
+                roads[r] = new double[]{random.nextDouble() * 40 - 20, -20, random.nextDouble() * 40 - 20, 20};
+            }
+            return roads;
+        }
+
+        @Override
+        Point next(final Random random, final double[][] roads) {
+            final double[] road = roads[random.nextInt(roads.length)];
+            final double t = random.nextDouble();
+            return new Point(road[0] + t * (road[2] - road[0]) + random.nextGaussian() * 0.01,
+                    road[1] + t * (road[3] - road[1]) + random.nextGaussian() * 0.01);
+        }
+    };
+
+    // parameters drawn once per dataset, such as cluster centers or roads
+    double[][] shape(final Random random) {
+        return null;
+    }
+
+    abstract Point next(Random random, double[][] shape);
+
+    public List<Point> generate(final int n, final long seed) {
+        final Random random = new Random(seed);
+        final double[][] shape = shape(random);
+        final List<Point> points = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            points.add(next(random, shape));
+        }
+        return points;
+    }
+}
@@ -0,0 +1,117 @@
+package com.satanja.benchmark;
+
+import com.satanja.grid.AdaptiveGridRange;
+import com.satanja.grid.GridRange;
+import com.satanja.grid.OffHeapGridRange;
+import com.satanja.grid.PackedGridRange;
+import com.satanja.naive.PointsInRange;
+import com.satanja.naive.SortedPointsInRange;
+import com.satanja.planner.PlannedIndex;
+import com.satanja.rangetree.DynamicRangeTree;
+import com.satanja.rangetree.FlatRangeTree;
+import com.satanja.rangetree.MappedRangeTree;
+import com.satanja.rangetree.RangeTree;
+import com.satanja.rangetree.SpatialIndex;
+import com.satanja.semirangetree.SemiRangeTree;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// every index of the project, the grids are sized for the window size of the dataset
+public enum IndexType {
+    RANGE_TREE {
+        @Override
+        SpatialIndex build(final Dataset dataset) {
+            return new RangeTree(dataset.pointSet);
+        }
+    },
+    FLAT_RANGE_TREE {
+        @Override
+        SpatialIndex build(final Dataset dataset) {
+            return new FlatRangeTree(dataset.pointSet);
+        }
+    },
+    // written to a temporary file that is deleted right away, the mapping keeps the data until the tree is closed
+    MAPPED_RANGE_TREE {
+        @Override
+        SpatialIndex build(final Dataset dataset) {
+            try {
+                final Path file = Files.createTempFile("range-tree", ".bin");
+                try {
+                    MappedRangeTree.write(new FlatRangeTree(dataset.pointSet), file);
+                    return MappedRangeTree.open(file);
+                } finally {
+                    Files.delete(file);
+                }
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    },
+    SEMI_RANGE_TREE {
+        @Override
+        SpatialIndex build(final Dataset dataset) {
+            return new SemiRangeTree(dataset.points);
+        }
+    },
+    DYNAMIC_RANGE_TREE {
+        @Override
+        SpatialIndex build(final Dataset dataset) {
+            return new DynamicRangeTree(dataset.points);
+        }
+    },
+    POINTS_IN_RANGE {
+        @Override
+        SpatialIndex build(final Dataset dataset) {
+            return new PointsInRange(dataset.pointSet);
+        }
+    },
+    SORTED_POINTS_IN_RANGE {
+        @Override
+        SpatialIndex build(final Dataset dataset) {
+            return new SortedPointsInRange(dataset.pointSet);
+        }
+    },
+    GRID_RANGE {
+        @Override
+        SpatialIndex build(final Dataset dataset) {
+            return GridRange.adaptive(dataset.points, dataset.windowSize);
+        }
+    },
+    PACKED_GRID_RANGE {
+        @Override
+        SpatialIndex build(final Dataset dataset) {
+            return PackedGridRange.adaptive(dataset.pointSet, dataset.windowSize);
+        }
+    },
+    ADAPTIVE_GRID_RANGE {
+        @Override
+        SpatialIndex build(final Dataset dataset) {
+            return new AdaptiveGridRange(dataset.pointSet);
+        }
+    },
+    OFF_HEAP_GRID_RANGE {
+        @Override
+        SpatialIndex build(final Dataset dataset) {
+            return OffHeapGridRange.adaptive(dataset.pointSet, dataset.windowSize);
+        }
+    },
+    // the planner does not know the window size, its grid is sized for the density of the points only
+    PLANNED {
+        @Override
+        SpatialIndex build(final Dataset dataset) {
+            return new PlannedIndex(dataset.pointSet);
+        }
+    };
+
+    abstract SpatialIndex build(Dataset dataset);
+
+    // frees the native memory or the mapping of the indexes that hold one
+    static void release(final SpatialIndex index) throws Exception {
+        if (index instanceof AutoCloseable) {
+            ((AutoCloseable) index).close();
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.satanja.benchmark;
+
+import com.satanja.rangetree.SpatialIndex;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+// one window query per invocation, reported as throughput and as a latency distribution with percentiles
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Benchmark)
+public class QueryBenchmark {
+
+    @Param
+    public IndexType index;
+
+    private SpatialIndex built;
+
+    @Setup(Level.Trial)
+    public void setup(final Dataset dataset) {
+        built = index.build(dataset);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        IndexType.release(built);
+    }
+
+    @Benchmark
+    @BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void search(final Dataset dataset, final Dataset.Cursor cursor, final Blackhole blackhole) {
+        built.search(cursor.next(dataset), blackhole::consume);
+    }
+}
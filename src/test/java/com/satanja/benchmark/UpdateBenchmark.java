@@ -0,0 +1,61 @@
+package com.satanja.benchmark;
+
+import com.satanja.grid.GridRange;
+import com.satanja.rangetree.DynamicRangeTree;
+import com.satanja.rangetree.Point;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * One invocation moves one point by a small step, on the two indexes that support updates. Every iteration starts
+ * from fresh indexes, so the structures do not drift between iterations.
+ */
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Benchmark)
+public class UpdateBenchmark {
+
+    private List<Point> points;
+    private DynamicRangeTree dynamicRangeTree;
+    private GridRange gridRange;
+    private Random random;
+
+    @Setup(Level.Iteration)
+    public void setup(final Dataset dataset) {
+        points = new ArrayList<>(dataset.points);
+        dynamicRangeTree = new DynamicRangeTree(points);
+        gridRange = GridRange.adaptive(points, dataset.windowSize);
+        random = new Random(0);
+    }
+
+    private Point[] move() {
+        final int index = random.nextInt(points.size());
+        final Point from = points.get(index);
+        final Point to = new Point(from.getX() + random.nextDouble() - 0.5, from.getY() + random.nextDouble() - 0.5);
+        points.set(index, to);
+        return new Point[]{from, to};
+    }
+
+    @Benchmark
+    @BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public boolean dynamicRangeTreeMove() {
+        final Point[] move = move();
+        final boolean deleted = dynamicRangeTree.delete(move[0]);
+        dynamicRangeTree.insert(move[1]);
+        return deleted;
+    }
+
+    @Benchmark
+    @BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public boolean gridRangeMove() {
+        final Point[] move = move();
+        return gridRange.move(move[0], move[1]);
+    }
+}
@@ -0,0 +1,71 @@
+package com.satanja.performancetest;
+
+import com.satanja.grid.GridRange;
+import com.satanja.rangetree.Point;
+import com.satanja.rangetree.RangeTree;
+import com.satanja.rangetree.Window;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@State(Scope.Benchmark)
+public class BatchBenchmark {
+
+    private RangeTree rangeTree;
+    private GridRange gridRange;
+
+    private List<Window> windows;
+
+    @Param({"10000", "100000", "1000000"})
+    public int input_size;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        final List<Point> points = PerformanceTest.generate(input_size);
+        rangeTree = new RangeTree(points);
+        gridRange = new GridRange(points, 20);
+
+        windows = new ArrayList<>(points.size());
+        for (final Point p : points) {
+            windows.add(new Window(p.getX() - 1, p.getX() + 1, p.getY() - 1, p.getY() + 1));
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void benchmarkRangeTreeLoop(final Blackhole blackhole) {
+        for (final Window window : windows) {
+            blackhole.consume(rangeTree.search(window));
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public List<List<Point>> benchmarkRangeTreeSearchAll() {
+        return rangeTree.searchAll(windows);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void benchmarkGridRangeLoop(final Blackhole blackhole) {
+        for (final Window window : windows) {
+            blackhole.consume(gridRange.search(window));
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public List<List<Point>> benchmarkGridRangeSearchAll() {
+        return gridRange.searchAll(windows);
+    }
+}
@@ -0,0 +1,91 @@
+package com.satanja.performancetest;
+
+import com.satanja.grid.GridRange;
+import com.satanja.naive.SortedPointsInRange;
+import com.satanja.rangetree.CachedIndex;
+import com.satanja.rangetree.Point;
+import com.satanja.rangetree.RangeTree;
+import com.satanja.rangetree.SpatialIndex;
+import com.satanja.rangetree.Window;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Map tile traffic: the domain is cut into 32 x 32 tiles, nine out of ten requests go to 64 popular tiles and the rest
+ * to any tile, and every request is off the tile by a tiny jitter, as with clients that compute the tile bounds
+ * themselves. The cache holds 256 entries on a quantum of a fifth of a tile. A hit still filters and reports the points
+ * of its tile, so the cache pays off in proportion to the work the index does beyond reporting.
+ */
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@State(Scope.Benchmark)
+public class CacheBenchmark {
+
+    private static final int TILES = 32;
+    private static final double TILE_SIZE = 40.0 / TILES;
+    private static final int REQUESTS = 1 << 14;
+
+    private SpatialIndex index;
+    private CachedIndex cachedIndex;
+    private Window[] requests;
+    private int next;
+
+    @Param({"100000"})
+    public int input_size;
+
+    @Param({"rangeTree", "gridRange", "sortedScan"})
+    public String structure;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        final List<Point> points = PerformanceTest.generate(input_size);
+        switch (structure) {
+            case "rangeTree":
+                index = new RangeTree(points);
+                break;
+            case "gridRange":
+                index = GridRange.adaptive(points, TILE_SIZE);
+                break;
+            default:
+                index = new SortedPointsInRange(points);
+        }
+        cachedIndex = new CachedIndex(index, TILE_SIZE / 5, 256, Long.MAX_VALUE);
+
+        final Random random = new Random(0);
+        final int[] popular = new int[64];
+        for (int i = 0; i < popular.length; i++) {
+            popular[i] = random.nextInt(TILES * TILES);
+        }
+        requests = new Window[REQUESTS];
+        for (int i = 0; i < REQUESTS; i++) {
+            final int tile = random.nextInt(10) < 9 ? popular[random.nextInt(popular.length)] : random.nextInt(TILES * TILES);
+            final double x = -20 + (tile / TILES) * TILE_SIZE + (random.nextDouble() - 0.5) * 1e-3;
+            final double y = -20 + (tile % TILES) * TILE_SIZE + (random.nextDouble() - 0.5) * 1e-3;
+            requests[i] = new Window(x, x + TILE_SIZE, y, y + TILE_SIZE);
+        }
+    }
+
+    private Window nextRequest() {
+        next = (next + 1) & (REQUESTS - 1);
+        return requests[next];
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void direct(final Blackhole blackhole) {
+        index.search(nextRequest(), blackhole::consume);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void cached(final Blackhole blackhole) {
+        cachedIndex.search(nextRequest(), blackhole::consume);
+    }
+}
@@ -0,0 +1,40 @@
+package com.satanja.performancetest;
+
+import com.satanja.rangetree.FlatRangeTree;
+import com.satanja.rangetree.Point;
+import com.satanja.rangetree.RangeTree;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@State(Scope.Benchmark)
+public class ConstructionBenchmark {
+
+    private List<Point> points;
+
+    @Param({"1000000", "2000000", "5000000"})
+    public int input_size;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        points = PerformanceTest.generate(input_size);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public RangeTree benchmarkRangeTreeConstruction() {
+        return new RangeTree(points);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public FlatRangeTree benchmarkFlatRangeTreeConstruction() {
+        return new FlatRangeTree(points);
+    }
+}
@@ -0,0 +1,98 @@
+package com.satanja.performancetest;
+
+import com.satanja.grid.GridRange;
+import com.satanja.rangetree.Point;
+import com.satanja.rangetree.RangeTree;
+import com.satanja.rangetree.Window;
+import com.satanja.semirangetree.SemiRangeTree;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@State(Scope.Benchmark)
+public class CountBenchmark {
+
+    private RangeTree rangeTree;
+    private SemiRangeTree semiRangeTree;
+    private GridRange gridRange;
+
+    private List<Point> points;
+
+    @Param({"1000", "10000", "100000"})
+    public int input_size;
+
+    // half the width of the query windows
+    @Param({"1", "5"})
+    public double window_size;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        points = PerformanceTest.generate(input_size);
+        rangeTree = new RangeTree(points);
+        semiRangeTree = new SemiRangeTree(points);
+        gridRange = new GridRange(points, 20);
+    }
+
+    private Window window(final Point p) {
+        return new Window(p.getX() - window_size, p.getX() + window_size, p.getY() - window_size, p.getY() + window_size);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void benchmarkRangeTreeCount(final Blackhole blackhole) {
+        for (final Point p : points) {
+            blackhole.consume(rangeTree.count(window(p)));
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void benchmarkRangeTreeSearchSize(final Blackhole blackhole) {
+        for (final Point p : points) {
+            blackhole.consume(rangeTree.search(window(p)).size());
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void benchmarkSemiRangeTreeCount(final Blackhole blackhole) {
+        for (final Point p : points) {
+            blackhole.consume(semiRangeTree.count(window(p)));
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void benchmarkSemiRangeTreeSearchSize(final Blackhole blackhole) {
+        for (final Point p : points) {
+            blackhole.consume(semiRangeTree.search(window(p)).size());
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void benchmarkGridRangeCount(final Blackhole blackhole) {
+        for (final Point p : points) {
+            blackhole.consume(gridRange.count(window(p)));
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void benchmarkGridRangeSearchSize(final Blackhole blackhole) {
+        for (final Point p : points) {
+            blackhole.consume(gridRange.search(window(p)).size());
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.satanja.performancetest;
+
+import com.satanja.grid.GridRange;
+import com.satanja.rangetree.DynamicRangeTree;
+import com.satanja.rangetree.Point;
+import com.satanja.rangetree.RangeTree;
+import com.satanja.rangetree.Window;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * One tick moves a fraction of the points and then queries a window around every moved point, either on an index that
+ * is rebuilt every tick or on one that is updated in place.
+ */
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@State(Scope.Benchmark)
+public class DynamicBenchmark {
+
+    private List<Point> points;
+    private DynamicRangeTree dynamicRangeTree;
+    private GridRange gridRange;
+    private Random random;
+
+    @Param({"10000", "100000"})
+    public int input_size;
+
+    @Param({"0.01", "0.1"})
+    public double moved_fraction;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        points = new ArrayList<>(PerformanceTest.generate(input_size));
+        dynamicRangeTree = new DynamicRangeTree(points);
+        gridRange = new GridRange(points, 20);
+        random = new Random(0);
+    }
+
+    private Point move(final int index) {
+        final Point old = points.get(index);
+        final Point moved = new Point(old.getX() + random.nextDouble() - 0.5, old.getY() + random.nextDouble() - 0.5);
+        points.set(index, moved);
+        return moved;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void benchmarkRebuildTick(final Blackhole blackhole) {
+        final int moves = (int) (input_size * moved_fraction);
+        final List<Point> moved = new ArrayList<>(moves);
+        for (int i = 0; i < moves; i++) {
+            moved.add(move(random.nextInt(input_size)));
+        }
+
+        final RangeTree rangeTree = new RangeTree(points);
+        for (final Point p : moved) {
+            blackhole.consume(rangeTree.search(new Window(p.getX() - 1, p.getX() + 1, p.getY() - 1, p.getY() + 1)));
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void benchmarkDynamicTick(final Blackhole blackhole) {
+        final int moves = (int) (input_size * moved_fraction);
+        final List<Point> moved = new ArrayList<>(moves);
+        for (int i = 0; i < moves; i++) {
+            final int index = random.nextInt(input_size);
+            dynamicRangeTree.delete(points.get(index));
+            final Point point = move(index);
+            dynamicRangeTree.insert(point);
+            moved.add(point);
+        }
+
+        for (final Point p : moved) {
+            blackhole.consume(dynamicRangeTree.search(new Window(p.getX() - 1, p.getX() + 1, p.getY() - 1, p.getY() + 1)));
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void benchmarkGridRangeRebuildTick(final Blackhole blackhole) {
+        final int moves = (int) (input_size * moved_fraction);
+        final List<Point> moved = new ArrayList<>(moves);
+        for (int i = 0; i < moves; i++) {
+            moved.add(move(random.nextInt(input_size)));
+        }
+
+        final GridRange rebuilt = new GridRange(points, 20);
+        for (final Point p : moved) {
+            blackhole.consume(rebuilt.search(new Window(p.getX() - 1, p.getX() + 1, p.getY() - 1, p.getY() + 1)));
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void benchmarkGridRangeMoveTick(final Blackhole blackhole) {
+        final int moves = (int) (input_size * moved_fraction);
+        final List<Point> moved = new ArrayList<>(moves);
+        for (int i = 0; i < moves; i++) {
+            final int index = random.nextInt(input_size);
+            final Point from = points.get(index);
+            final Point to = move(index);
+            gridRange.move(from, to);
+            moved.add(to);
+        }
+
+        for (final Point p : moved) {
+            blackhole.consume(gridRange.search(new Window(p.getX() - 1, p.getX() + 1, p.getY() - 1, p.getY() + 1)));
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.satanja.performancetest;
+
+import com.satanja.grid.AdaptiveGridRange;
+import com.satanja.grid.GridRange;
+import com.satanja.grid.OffHeapGridRange;
+import com.satanja.grid.PackedGridRange;
+import com.satanja.rangetree.Point;
+import com.satanja.rangetree.PointSet;
+import com.satanja.rangetree.Window;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@State(Scope.Benchmark)
+public class GridBenchmark {
+
+    private GridRange gridRange;
+    private PackedGridRange packedGridRange;
+    private PackedGridRange densePackedGridRange;
+    private PackedGridRange adaptivePackedGridRange;
+    private AdaptiveGridRange adaptiveGridRange;
+    private OffHeapGridRange offHeapGridRange;
+
+    private List<Point> points;
+
+    @Param({"10000", "100000"})
+    public int input_size;
+
+    @Param({"20", "100"})
+    public int subdivisions;
+
+    // half the width of the query windows
+    @Param({"1", "5"})
+    public double window_size;
+
+    @Param({"uniform", "clustered"})
+    public String distribution;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        points = distribution.equals("uniform") ? PerformanceTest.generate(input_size) : clustered(input_size);
+        gridRange = new GridRange(points, subdivisions);
+        packedGridRange = new PackedGridRange(points, subdivisions);
+        densePackedGridRange = new PackedGridRange(PointSet.of(points), subdivisions, 256);
+        adaptivePackedGridRange = PackedGridRange.adaptive(PointSet.of(points), 2 * window_size);
+        adaptiveGridRange = new AdaptiveGridRange(points);
+        offHeapGridRange = new OffHeapGridRange(PointSet.of(points), subdivisions);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        offHeapGridRange.close();
+    }
+
+    // ten gaussian clusters of different spread inside the same bounds as PerformanceTest.generate
+    static List<Point> clustered(final int n) {
+        final Random r = new Random(0);
+        final double[][] centers = new double[10][];
+        for (int c = 0; c < centers.length; c++) {
+            centers[c] = new double[]{r.nextDouble() * 30 - 15, r.nextDouble() * 30 - 15, Math.pow(10, r.nextDouble() * 2 - 2)};
+        }
+
+        final List<Point> points = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            final double[] center = centers[r.nextInt(centers.length)];
+            points.add(new Point(center[0] + r.nextGaussian() * center[2], center[1] + r.nextGaussian() * center[2]));
+        }
+        return points;
+    }
+
+    private Window window(final Point p) {
+        return new Window(p.getX() - window_size, p.getX() + window_size, p.getY() - window_size, p.getY() + window_size);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void benchmarkGridRangeConsumer(final Blackhole blackhole) {
+        for (final Point p : points) {
+            gridRange.search(window(p), blackhole::consume);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void benchmarkPackedGridRangeIds(final Blackhole blackhole) {
+        for (final Point p : points) {
+            packedGridRange.searchIds(window(p), blackhole::consume);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void benchmarkDensePackedGridRangeIds(final Blackhole blackhole) {
+        for (final Point p : points) {
+            densePackedGridRange.searchIds(window(p), blackhole::consume);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void benchmarkPackedGridRangeBulkIds(final Blackhole blackhole) {
+        for (final Point p : points) {
+            blackhole.consume(packedGridRange.searchIds(window(p)));
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void benchmarkAdaptivePackedGridRangeIds(final Blackhole blackhole) {
+        for (final Point p : points) {
+            adaptivePackedGridRange.searchIds(window(p), blackhole::consume);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void benchmarkAdaptiveGridRangeIds(final Blackhole blackhole) {
+        for (final Point p : points) {
+            adaptiveGridRange.searchIds(window(p), blackhole::consume);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void benchmarkOffHeapGridRangeIds(final Blackhole blackhole) {
+        for (final Point p : points) {
+            offHeapGridRange.searchIds(window(p), blackhole::consume);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void benchmarkOffHeapGridRangeBulkIds(final Blackhole blackhole) {
+        for (final Point p : points) {
+            blackhole.consume(offHeapGridRange.searchIds(window(p)));
+        }
+    }
+}
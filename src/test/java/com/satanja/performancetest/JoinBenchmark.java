@@ -0,0 +1,76 @@
+package com.satanja.performancetest;
+
+import com.satanja.grid.PackedGridRange;
+import com.satanja.naive.SortedPointsInRange;
+import com.satanja.rangetree.Point;
+import com.satanja.rangetree.PointSet;
+import com.satanja.rangetree.RangeTree;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@State(Scope.Benchmark)
+public class JoinBenchmark {
+
+    private PointSet pointSet;
+    private RangeTree rangeTree;
+    private PackedGridRange packedGridRange;
+    private SortedPointsInRange sortedPointsInRange;
+
+    @Param({"10000", "100000"})
+    public int input_size;
+
+    @Param({"1", "5"})
+    public double radius;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        final List<Point> points = PerformanceTest.generate(input_size);
+        pointSet = PointSet.of(points);
+        rangeTree = new RangeTree(pointSet);
+        packedGridRange = PackedGridRange.adaptive(pointSet, 2 * radius);
+        sortedPointsInRange = new SortedPointsInRange(pointSet);
+    }
+
+    // the loop the join replaces: one radius query per point, keeping the pairs whose other id is larger
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void benchmarkRangeTreeQueryLoop(final Blackhole blackhole) {
+        for (int id = 0; id < pointSet.size(); id++) {
+            final int first = id;
+            rangeTree.searchRadiusIds(pointSet.get(id), radius, other -> {
+                if (other > first) {
+                    blackhole.consume(other);
+                }
+            });
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void benchmarkSortedPointsInRangeJoin(final Blackhole blackhole) {
+        sortedPointsInRange.selfJoin(radius, (a, b) -> blackhole.consume(b));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void benchmarkPackedGridRangeJoin(final Blackhole blackhole) {
+        packedGridRange.selfJoin(radius, (a, b) -> blackhole.consume(b));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void benchmarkPackedGridRangeParallelJoin(final Blackhole blackhole) {
+        packedGridRange.selfJoin(radius, (a, b) -> blackhole.consume(b), ForkJoinPool.commonPool());
+    }
+}
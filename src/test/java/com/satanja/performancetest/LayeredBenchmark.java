@@ -0,0 +1,83 @@
+package com.satanja.performancetest;
+
+import com.satanja.layeredrangetree.Box;
+import com.satanja.layeredrangetree.LayeredRangeTree;
+import com.satanja.layeredrangetree.MultiPointSet;
+import com.satanja.naive.SortedMultiPointsInRange;
+import com.satanja.rangetree.IdConsumer;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Spatio-temporal boxes: uniform points in [-20, 20)^d, the last coordinate standing for time, and boxes of a tenth of
+ * the domain on every coordinate, so a box holds a thousandth of the points in 3D and a ten-thousandth in 4D while the
+ * scan still checks a tenth of them.
+ */
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@State(Scope.Benchmark)
+public class LayeredBenchmark {
+
+    private static final int QUERIES = 1 << 10;
+
+    private LayeredRangeTree tree;
+    private SortedMultiPointsInRange scan;
+    private Box[] boxes;
+    private int next;
+
+    @Param({"3", "4"})
+    public int dimensions;
+
+    @Param({"10000", "50000"})
+    public int input_size;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        final Random random = new Random(0);
+        final double[][] coordinates = new double[dimensions][input_size];
+        for (int i = 0; i < input_size; i++) {
+            for (int dimension = 0; dimension < dimensions; dimension++) {
+                coordinates[dimension][i] = random.nextDouble() * 40 - 20;
+            }
+        }
+        final MultiPointSet points = new MultiPointSet(coordinates);
+        tree = new LayeredRangeTree(points);
+        scan = new SortedMultiPointsInRange(points);
+
+        boxes = new Box[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            final double[] min = new double[dimensions];
+            final double[] max = new double[dimensions];
+            for (int dimension = 0; dimension < dimensions; dimension++) {
+                min[dimension] = random.nextDouble() * 36 - 20;
+                max[dimension] = min[dimension] + 4;
+            }
+            boxes[i] = new Box(min, max);
+        }
+    }
+
+    private Box nextBox() {
+        next = (next + 1) & (QUERIES - 1);
+        return boxes[next];
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void layeredRangeTree(final Blackhole blackhole) {
+        final IdConsumer consumer = blackhole::consume;
+        tree.searchIds(nextBox(), consumer);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void sortedScan(final Blackhole blackhole) {
+        final IdConsumer consumer = blackhole::consume;
+        scan.searchIds(nextBox(), consumer);
+    }
+}
@@ -0,0 +1,104 @@
+package com.satanja.performancetest;
+
+import com.satanja.rangetree.FlatRangeTree;
+import com.satanja.rangetree.MappedRangeTree;
+import com.satanja.rangetree.Point;
+import com.satanja.rangetree.Window;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Startup and query cost of a tree that is opened from a mapped file, against building the same tree on the heap. The
+ * file is written once per trial, so it is in the page cache when it is opened.
+ */
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@State(Scope.Benchmark)
+public class MappedBenchmark {
+
+    private List<Point> points;
+    private FlatRangeTree flatRangeTree;
+    private MappedRangeTree mappedRangeTree;
+    private Path file;
+
+    @Param({"100000", "1000000"})
+    public int input_size;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        points = PerformanceTest.generate(input_size);
+        flatRangeTree = new FlatRangeTree(points);
+        file = Files.createTempFile("range-tree", ".bin");
+        MappedRangeTree.write(flatRangeTree, file);
+        mappedRangeTree = MappedRangeTree.open(file);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        mappedRangeTree.close();
+        Files.delete(file);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public FlatRangeTree benchmarkFlatRangeTreeConstruction() {
+        return new FlatRangeTree(points);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int benchmarkMappedRangeTreeOpen() throws IOException {
+        try (MappedRangeTree tree = MappedRangeTree.open(file)) {
+            return tree.size();
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void benchmarkFlatRangeTreeCount(final Blackhole blackhole) {
+        for (int i = 0; i < 100000; i++) {
+            final Point p = points.get(i);
+            blackhole.consume(flatRangeTree.count(new Window(p.getX() - 1, p.getX() + 1, p.getY() - 1, p.getY() + 1)));
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void benchmarkMappedRangeTreeCount(final Blackhole blackhole) {
+        for (int i = 0; i < 100000; i++) {
+            final Point p = points.get(i);
+            blackhole.consume(mappedRangeTree.count(new Window(p.getX() - 1, p.getX() + 1, p.getY() - 1, p.getY() + 1)));
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void benchmarkFlatRangeTreeSearchIds(final Blackhole blackhole) {
+        for (int i = 0; i < 100000; i++) {
+            final Point p = points.get(i);
+            flatRangeTree.searchIds(new Window(p.getX() - 1, p.getX() + 1, p.getY() - 1, p.getY() + 1), blackhole::consume);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void benchmarkMappedRangeTreeSearchIds(final Blackhole blackhole) {
+        for (int i = 0; i < 100000; i++) {
+            final Point p = points.get(i);
+            mappedRangeTree.searchIds(new Window(p.getX() - 1, p.getX() + 1, p.getY() - 1, p.getY() + 1), blackhole::consume);
+        }
+    }
+}
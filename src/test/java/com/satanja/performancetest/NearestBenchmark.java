@@ -0,0 +1,98 @@
+package com.satanja.performancetest;
+
+import com.satanja.grid.GridRange;
+import com.satanja.rangetree.Point;
+import com.satanja.rangetree.RangeTree;
+import com.satanja.rangetree.SpatialIndex;
+import com.satanja.rangetree.Window;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@State(Scope.Benchmark)
+public class NearestBenchmark {
+
+    private RangeTree rangeTree;
+    private GridRange gridRange;
+
+    private List<Point> points;
+
+    @Param({"10000", "100000"})
+    public int input_size;
+
+    @Param({"1", "10", "100"})
+    public int k;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        points = PerformanceTest.generate(input_size);
+        rangeTree = new RangeTree(points);
+        gridRange = GridRange.adaptive(points, 0);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void benchmarkRangeTreeNearest(final Blackhole blackhole) {
+        for (final Point p : points) {
+            blackhole.consume(rangeTree.nearest(p, k));
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void benchmarkGridRangeNearest(final Blackhole blackhole) {
+        for (final Point p : points) {
+            blackhole.consume(gridRange.nearest(p, k));
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void benchmarkRangeTreeGrowingWindows(final Blackhole blackhole) {
+        for (final Point p : points) {
+            blackhole.consume(nearestByWindows(rangeTree, p, k));
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void benchmarkGridRangeGrowingWindows(final Blackhole blackhole) {
+        for (final Point p : points) {
+            blackhole.consume(nearestByWindows(gridRange, p, k));
+        }
+    }
+
+    /*
+     * The workaround the nearest queries replace: doubles a window around the point until it holds k points, then
+     * searches the window whose half width is the k-th distance, since closer points may lie outside the corners.
+     */
+    private List<Point> nearestByWindows(final SpatialIndex index, final Point point, final int k) {
+        final Comparator<Point> byDistance = Comparator.comparingDouble(p -> Math.hypot(p.getX() - point.getX(), p.getY() - point.getY()));
+        double halfWidth = 40 * Math.sqrt((double) k / input_size) / 2;
+        List<Point> found = index.search(window(point, halfWidth));
+        while (found.size() < k && found.size() < input_size) {
+            halfWidth *= 2;
+            found = index.search(window(point, halfWidth));
+        }
+
+        found.sort(byDistance);
+        final Point kth = found.get(k - 1);
+        found = index.search(window(point, Math.hypot(kth.getX() - point.getX(), kth.getY() - point.getY())));
+        found.sort(byDistance);
+        return found.subList(0, k);
+    }
+
+    private static Window window(final Point point, final double halfWidth) {
+        return new Window(point.getX() - halfWidth, point.getX() + halfWidth, point.getY() - halfWidth, point.getY() + halfWidth);
+    }
+}
@@ -0,0 +1,43 @@
+package com.satanja.performancetest;
+
+import com.satanja.rangetree.Point;
+import com.satanja.rangetree.RangeTree;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+@Fork(value = 1, jvmArgsAppend = "-Xmx16g")
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@State(Scope.Benchmark)
+public class ParallelConstructionBenchmark {
+
+    private List<Point> points;
+    private ForkJoinPool pool;
+
+    @Param({"1000000", "10000000"})
+    public int input_size;
+
+    @Param({"1", "2", "4", "8", "16"})
+    public int parallelism;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        points = PerformanceTest.generate(input_size);
+        pool = new ForkJoinPool(parallelism);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public RangeTree benchmarkParallelRangeTreeConstruction() {
+        return new RangeTree(points, pool);
+    }
+}
@@ -1,19 +1,53 @@
 package com.satanja.performancetest;
 
+import com.satanja.grid.AdaptiveGridRange;
 import com.satanja.grid.GridRange;
+import com.satanja.grid.OffHeapGridRange;
+import com.satanja.grid.PackedGridRange;
+import com.satanja.grid.WindowJoin;
+import com.satanja.layeredrangetree.Box;
+import com.satanja.layeredrangetree.LayeredRangeTree;
+import com.satanja.layeredrangetree.MultiPointSet;
+import com.satanja.metrics.LatencyHistogram;
+import com.satanja.metrics.Metrics;
+import com.satanja.metrics.OperationMetrics;
+import com.satanja.rangetree.CachedIndex;
+import com.satanja.rangetree.DynamicRangeTree;
+import com.satanja.rangetree.FlatRangeTree;
+import com.satanja.rangetree.IdIndex;
+import com.satanja.rangetree.MappedRangeTree;
+import com.satanja.rangetree.Neighbours;
 import com.satanja.rangetree.Point;
+import com.satanja.rangetree.PointConsumer;
+import com.satanja.rangetree.PointSet;
 import com.satanja.rangetree.RangeTree;
+import com.satanja.rangetree.SnapshotIndex;
+import com.satanja.rangetree.SpatialIndex;
 import com.satanja.rangetree.Window;
 import com.satanja.naive.PointsInRange;
+import com.satanja.naive.SortedMultiPointsInRange;
 import com.satanja.naive.SortedPointsInRange;
+import com.satanja.planner.PlannedIndex;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.openjdk.jmh.annotations.*;
 import org.openjdk.jmh.infra.Blackhole;
 import com.satanja.semirangetree.SemiRangeTree;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 @Fork(1)
 @Warmup(iterations = 5)
@@ -22,6 +56,7 @@ import java.util.concurrent.TimeUnit;
 public class PerformanceTest {
 
     private RangeTree rangeTree;
+    private FlatRangeTree flatRangeTree;
     private PointsInRange pointsInRange;
     private SortedPointsInRange sortedPointsInRange;
     private SemiRangeTree semiRangeTree;
@@ -38,7 +73,7 @@ public class PerformanceTest {
         points = generate(input_size);
     }
 
-    List<Point> generate(final int n) {
+    static List<Point> generate(final int n) {
         Random r = new Random(0);
         final List<Point> points = new ArrayList<>();
 
@@ -62,6 +97,30 @@ public class PerformanceTest {
         }
     }
 
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void benchmarkRangeTreeConsumer(final Blackhole blackhole) {
+        rangeTree = new RangeTree(points);
+        final PointConsumer consumer = blackhole::consume;
+        for (final Point p : points) {
+            final Window window = new Window(p.getX() - 1, p.getX() + 1, p.getY() - 1, p.getY() + 1);
+            rangeTree.search(window, consumer);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void benchmarkFlatRangeTree(final Blackhole blackhole) {
+        flatRangeTree = new FlatRangeTree(points);
+        for (final Point p : points) {
+            final Window window = new Window(p.getX() - 1, p.getX() + 1, p.getY() - 1, p.getY() + 1);
+            List<Point> points = flatRangeTree.search(window);
+            blackhole.consume(points);
+        }
+    }
+
 //    @Benchmark
 //    @BenchmarkMode(Mode.SingleShotTime)
 //    @OutputTimeUnit(TimeUnit.MILLISECONDS)
@@ -150,6 +209,1049 @@ public class PerformanceTest {
         }
     }
 
+    @Test
+    public void testFlatRangeTree() {
+        points = generate(4000);
+        flatRangeTree = new FlatRangeTree(points);
+        rangeTree = new RangeTree(points);
+        pointsInRange = new PointsInRange(points);
+
+        for (final Point p : points) {
+            final Window window = new Window(p.getX() - 1, p.getX() + 1, p.getY() - 1, p.getY() + 1);
+            final List<Point> expected = pointsInRange.search(window);
+            final List<Point> points = flatRangeTree.search(window);
+
+            Assertions.assertEquals(expected.size(), points.size());
+            Assertions.assertEquals(new HashSet<>(expected), new HashSet<>(points));
+            Assertions.assertEquals(new HashSet<>(rangeTree.search(window)), new HashSet<>(points));
+        }
+
+        final Random r = new Random(1);
+        for (int i = 0; i < 1000; i++) {
+            final double x = r.nextDouble() * 50 - 25;
+            final double y = r.nextDouble() * 50 - 25;
+            final Window window = new Window(x, x + r.nextDouble() * 10, y, y + r.nextDouble() * 10);
+            Assertions.assertEquals(pointsInRange.search(window).size(), flatRangeTree.search(window).size());
+        }
+    }
+
+    @Test
+    public void testFlatRangeTreeDuplicates() {
+        points = new ArrayList<>();
+        final Random r = new Random(2);
+        for (int i = 0; i < 2000; i++) {
+            points.add(new Point(r.nextInt(10), r.nextInt(10)));
+        }
+        flatRangeTree = new FlatRangeTree(points);
+        pointsInRange = new PointsInRange(points);
+
+        for (int xMin = -1; xMin <= 10; xMin++) {
+            for (int yMin = -1; yMin <= 10; yMin++) {
+                final Window window = new Window(xMin, xMin + 2, yMin, yMin + 3);
+                Assertions.assertEquals(pointsInRange.search(window).size(), flatRangeTree.search(window).size());
+            }
+        }
+
+        Assertions.assertTrue(new FlatRangeTree(new ArrayList<>()).search(new Window(0, 1, 0, 1)).isEmpty());
+    }
+
+    @Test
+    public void testParallelRangeTree() {
+        points = generate(20000);
+        rangeTree = new RangeTree(points);
+
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            final RangeTree parallelRangeTree = new RangeTree(points, pool, 64);
+            for (final Point p : points) {
+                final Window window = new Window(p.getX() - 1, p.getX() + 1, p.getY() - 1, p.getY() + 1);
+                Assertions.assertEquals(rangeTree.search(window), parallelRangeTree.search(window));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testSpatialIndexConsumers() {
+        points = generate(4000);
+        pointsInRange = new PointsInRange(points);
+        final List<SpatialIndex> indexes = List.of(new RangeTree(points), new FlatRangeTree(points), new GridRange(points, 20),
+                new PackedGridRange(points, 20), new AdaptiveGridRange(points), new SemiRangeTree(points), new SortedPointsInRange(new ArrayList<>(points)));
+
+        for (final Point p : points) {
+            final Window window = new Window(p.getX() - 1, p.getX() + 1, p.getY() - 1, p.getY() + 1);
+            final Set<Point> expected = new HashSet<>(pointsInRange.search(window));
+
+            for (final SpatialIndex index : indexes) {
+                final List<Point> found = new ArrayList<>();
+                index.search(window, found::add);
+                Assertions.assertEquals(expected.size(), found.size());
+                Assertions.assertEquals(expected, new HashSet<>(found));
+            }
+        }
+    }
+
+    @Test
+    public void testCount() {
+        points = generate(4000);
+        pointsInRange = new PointsInRange(points);
+        final List<SpatialIndex> indexes = List.of(new RangeTree(points), new FlatRangeTree(points), new GridRange(points, 20),
+                new PackedGridRange(points, 20), new AdaptiveGridRange(points), new SemiRangeTree(points), new SortedPointsInRange(new ArrayList<>(points)));
+
+        final Random r = new Random(3);
+        for (final Point p : points) {
+            final double size = r.nextDouble() * 10;
+            final Window window = new Window(p.getX() - size, p.getX() + size, p.getY() - 1, p.getY() + 1);
+            final int expected = pointsInRange.search(window).size();
+            for (final SpatialIndex index : indexes) {
+                Assertions.assertEquals(expected, index.count(window));
+            }
+        }
+    }
+
+    @Test
+    public void testWeightedRangeTree() {
+        points = generate(4000);
+        final Random r = new Random(4);
+        final double[] weights = new double[points.size()];
+        final Map<Point, Double> weightByPoint = new HashMap<>();
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = r.nextDouble() * 100 - 50;
+            weightByPoint.put(points.get(i), weights[i]);
+        }
+
+        rangeTree = new RangeTree(points, weights);
+        pointsInRange = new PointsInRange(points);
+
+        for (final Point p : points) {
+            final double size = r.nextDouble() * 5;
+            final Window window = new Window(p.getX() - size, p.getX() + size, p.getY() - size, p.getY() + size);
+
+            double sum = 0;
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (final Point point : pointsInRange.search(window)) {
+                final double weight = weightByPoint.get(point);
+                sum += weight;
+                min = Math.min(min, weight);
+                max = Math.max(max, weight);
+            }
+
+            Assertions.assertEquals(sum, rangeTree.sum(window), 1e-6);
+            Assertions.assertEquals(min, rangeTree.min(window));
+            Assertions.assertEquals(max, rangeTree.max(window));
+        }
+
+        final Window empty = new Window(100, 101, 100, 101);
+        Assertions.assertEquals(0, rangeTree.sum(empty));
+        Assertions.assertEquals(Double.POSITIVE_INFINITY, rangeTree.min(empty));
+        Assertions.assertThrows(IllegalStateException.class, () -> new RangeTree(points).sum(empty));
+    }
+
+    @Test
+    public void testSearchAll() throws Exception {
+        points = generate(4000);
+        final List<Window> windows = new ArrayList<>();
+        for (final Point p : points) {
+            windows.add(new Window(p.getX() - 1, p.getX() + 1, p.getY() - 1, p.getY() + 1));
+        }
+
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (final SpatialIndex index : List.of(new RangeTree(points), new GridRange(points, 20))) {
+                final List<List<Point>> parallel = index.searchAll(windows, pool);
+                final List<List<Point>> sequential = index.searchAll(windows, null);
+                Assertions.assertEquals(windows.size(), parallel.size());
+                for (int i = 0; i < windows.size(); i++) {
+                    final List<Point> expected = index.search(windows.get(i));
+                    Assertions.assertEquals(expected, parallel.get(i));
+                    Assertions.assertEquals(expected, sequential.get(i));
+                }
+
+                // without a pool the batch stays on the calling thread, also when that is a worker of another pool
+                final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+                pool.submit(() -> {
+                    index.join(windows, (w, p) -> threads.add(Thread.currentThread()), null);
+                    index.searchAll(windows, null);
+                }).get();
+                Assertions.assertEquals(1, threads.size());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testDynamicRangeTree() {
+        final Random r = new Random(5);
+        final List<Point> expected = new ArrayList<>(generate(1000));
+        final DynamicRangeTree dynamicRangeTree = new DynamicRangeTree(expected);
+
+        for (int i = 0; i < 20000; i++) {
+            if (r.nextInt(3) > 0 || expected.isEmpty()) {
+                final Point point = new Point(r.nextInt(40) - 20, r.nextInt(40) - 20);
+                expected.add(point);
+                dynamicRangeTree.insert(point);
+            } else {
+                final Point point = expected.remove(r.nextInt(expected.size()));
+                Assertions.assertTrue(dynamicRangeTree.delete(point));
+            }
+
+            if (i % 100 == 0) {
+                pointsInRange = new PointsInRange(expected);
+                final double x = r.nextDouble() * 40 - 20;
+                final double y = r.nextDouble() * 40 - 20;
+                final Window window = new Window(x, x + 5, y, y + 5);
+                Assertions.assertEquals(expected.size(), dynamicRangeTree.size());
+                Assertions.assertEquals(pointsInRange.search(window).size(), dynamicRangeTree.search(window).size());
+                Assertions.assertEquals(new HashSet<>(pointsInRange.search(window)), new HashSet<>(dynamicRangeTree.search(window)));
+            }
+        }
+
+        Assertions.assertFalse(dynamicRangeTree.delete(new Point(100, 100)));
+    }
+
+    @Test
+    public void testDynamicGridRange() {
+        final Random r = new Random(6);
+        final List<Point> expected = new ArrayList<>(generate(1000));
+        gridRange = new GridRange(expected, 20);
+
+        for (int i = 0; i < 20000; i++) {
+            final int operation = r.nextInt(3);
+            if (operation == 0 || expected.isEmpty()) {
+                // also far outside the initial bounds, and with duplicates
+                final Point point = new Point(r.nextInt(100) - 50, r.nextInt(100) - 50);
+                expected.add(point);
+                gridRange.insert(point);
+            } else if (operation == 1) {
+                final Point point = expected.remove(r.nextInt(expected.size()));
+                Assertions.assertTrue(gridRange.remove(point));
+            } else {
+                final int index = r.nextInt(expected.size());
+                final Point from = expected.get(index);
+                final Point to = new Point(from.getX() + r.nextDouble() * 4 - 2, from.getY() + r.nextDouble() * 4 - 2);
+                expected.set(index, to);
+                Assertions.assertTrue(gridRange.move(from, to));
+            }
+
+            if (i % 100 == 0) {
+                pointsInRange = new PointsInRange(expected);
+                final double x = r.nextDouble() * 140 - 70;
+                final double y = r.nextDouble() * 140 - 70;
+                final Window window = new Window(x, x + 10, y, y + 10);
+                Assertions.assertEquals(expected.size(), gridRange.size());
+                Assertions.assertEquals(pointsInRange.search(window).size(), gridRange.search(window).size());
+                Assertions.assertEquals(new HashSet<>(pointsInRange.search(window)), new HashSet<>(gridRange.search(window)));
+            }
+        }
+
+        Assertions.assertFalse(gridRange.remove(new Point(1000, 1000)));
+        Assertions.assertFalse(gridRange.move(new Point(1000, 1000), new Point(0, 0)));
+
+        // far outliers go to the overflow cell instead of growing the grid with their distance
+        points = generate(1000);
+        gridRange = new GridRange(points, 100);
+        final List<Point> outliers = List.of(new Point(1e6, 0), new Point(1e300, 0), new Point(-1e300, -1e300), new Point(0, 1e6));
+        for (final Point outlier : outliers) {
+            gridRange.insert(outlier);
+        }
+        Assertions.assertEquals(Set.of(new Point(1e6, 0)), new HashSet<>(gridRange.search(new Window(1e6 - 1, 1e6 + 1, -1, 1))));
+        Assertions.assertEquals(1, gridRange.count(new Window(-1, 1, 1e6 - 1, 1e6 + 1)));
+        Assertions.assertEquals(1, gridRange.searchRadius(new Point(1e300, 1), 2).size());
+        Assertions.assertEquals(new Point(1e6, 0), gridRange.nearest(new Point(2e6, 0), 1).getPoint(0));
+        Assertions.assertTrue(gridRange.move(new Point(1e6, 0), new Point(1, 1)));
+        Assertions.assertTrue(gridRange.remove(new Point(1e300, 0)));
+        pointsInRange = new PointsInRange(points);
+        final Window window = new Window(-5, 5, -5, 5);
+        Assertions.assertEquals(pointsInRange.search(window).size() + 1, gridRange.count(window));
+        Assertions.assertEquals(1003, gridRange.size());
+
+        // an outlier moves from the overflow cell into the grid once the grid grows over it, so a copy inserted later
+        // lands in the same cell and both copies can be removed
+        gridRange = new GridRange(generate(1000), 100);
+        final Point outlier = new Point(100, 0);
+        gridRange.insert(outlier);
+        gridRange.insert(new Point(30, 0));
+        gridRange.insert(new Point(70, 0));
+        gridRange.insert(outlier);
+        Assertions.assertEquals(2, gridRange.count(new Window(99, 101, -1, 1)));
+        Assertions.assertTrue(gridRange.move(outlier, new Point(99.5, 0)));
+        Assertions.assertTrue(gridRange.remove(new Point(99.5, 0)));
+        Assertions.assertTrue(gridRange.remove(outlier));
+        Assertions.assertFalse(gridRange.remove(outlier));
+        Assertions.assertEquals(0, gridRange.count(new Window(99, 101, -1, 1)));
+        Assertions.assertEquals(1002, gridRange.size());
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> gridRange.insert(new Point(Double.NaN, 0)));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> gridRange.insert(new Point(0, Double.POSITIVE_INFINITY)));
+    }
+
+    @Test
+    public void testRangeTreeDuplicates() {
+        points = new ArrayList<>();
+        final Random r = new Random(2);
+        for (int i = 0; i < 2000; i++) {
+            points.add(new Point(r.nextInt(10), r.nextInt(10)));
+        }
+        rangeTree = new RangeTree(points);
+        pointsInRange = new PointsInRange(points);
+
+        for (int xMin = -1; xMin <= 10; xMin++) {
+            for (int yMin = -1; yMin <= 10; yMin++) {
+                final Window window = new Window(xMin, xMin + 2, yMin, yMin + 3);
+                Assertions.assertEquals(pointsInRange.search(window).size(), rangeTree.search(window).size());
+                Assertions.assertEquals(pointsInRange.search(window).size(), rangeTree.count(window));
+            }
+        }
+
+        Assertions.assertTrue(new RangeTree(new ArrayList<>()).search(new Window(0, 1, 0, 1)).isEmpty());
+    }
+
+    @Test
+    public void testPointSetIds() {
+        final Random r = new Random(5);
+        final double[] xs = new double[4000];
+        final double[] ys = new double[4000];
+        for (int i = 0; i < xs.length; i++) {
+            xs[i] = r.nextInt(200) / 10.0;
+            ys[i] = r.nextInt(200) / 10.0;
+        }
+        final PointSet pointSet = new PointSet(xs, ys);
+        final PointsInRange expectedIndex = new PointsInRange(pointSet);
+        final List<IdIndex> indexes = List.of(new RangeTree(pointSet), new FlatRangeTree(pointSet),
+                new SortedPointsInRange(pointSet), new PackedGridRange(pointSet, 7), new PackedGridRange(pointSet, 40),
+                new PackedGridRange(pointSet, 7, 20), new AdaptiveGridRange(pointSet, 4), new SemiRangeTree(pointSet));
+
+        for (int i = 0; i < 500; i++) {
+            final double x = r.nextDouble() * 22 - 1;
+            final double y = r.nextDouble() * 22 - 1;
+            final Window window = new Window(x, x + r.nextDouble() * 4, y, y + r.nextDouble() * 4);
+            final int[] expected = expectedIndex.searchIds(window);
+            for (final IdIndex index : indexes) {
+                final int[] found = index.searchIds(window);
+                Arrays.sort(found);
+                Assertions.assertArrayEquals(expected, found);
+            }
+        }
+
+        // indexes built from a list report the positions in the list and return the original points
+        points = generate(1000);
+        rangeTree = new RangeTree(points);
+        final Window window = new Window(-5, 5, -5, 5);
+        final Set<Point> found = Collections.newSetFromMap(new IdentityHashMap<>());
+        found.addAll(rangeTree.search(window));
+        final int[] ids = rangeTree.searchIds(window);
+        Assertions.assertEquals(found.size(), ids.length);
+        for (final int id : ids) {
+            Assertions.assertTrue(found.contains(points.get(id)));
+        }
+
+        // changing the list afterwards does not change what the indexes report
+        final List<Point> expected = rangeTree.search(window);
+        final List<SpatialIndex> fromList = List.of(new FlatRangeTree(points), new PackedGridRange(points, 7), new SortedPointsInRange(points));
+        points.set(ids[0], new Point(100, 100));
+        Assertions.assertEquals(new HashSet<>(expected), new HashSet<>(rangeTree.search(window)));
+        for (final SpatialIndex index : fromList) {
+            Assertions.assertEquals(new HashSet<>(expected), new HashSet<>(index.search(window)));
+        }
+        points.clear();
+        Assertions.assertEquals(expected.size(), rangeTree.search(window).size());
+    }
+
+    @Test
+    public void testAdaptiveGrids() {
+        // a few dense clusters, one of them a single repeated point, on a sparse background
+        final Random r = new Random(6);
+        points = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            points.add(new Point(r.nextGaussian() * 0.01 + 5, r.nextGaussian() * 0.01 - 5));
+            points.add(new Point(r.nextGaussian() * 0.5 - 10, r.nextGaussian() * 0.5 + 10));
+            points.add(new Point(3, 3));
+            points.add(new Point(r.nextDouble() * 40 - 20, r.nextDouble() * 40 - 20));
+        }
+        final PointSet pointSet = PointSet.of(points);
+        pointsInRange = new PointsInRange(pointSet);
+        final List<SpatialIndex> indexes = List.of(GridRange.adaptive(points, 0), GridRange.adaptive(points, 0.5),
+                PackedGridRange.adaptive(pointSet, 0), PackedGridRange.adaptive(pointSet, 2), new PackedGridRange(pointSet, 10, 50),
+                new AdaptiveGridRange(pointSet), new AdaptiveGridRange(pointSet, 1));
+
+        for (int i = 0; i < 2000; i++) {
+            final Point p = points.get(r.nextInt(points.size()));
+            final double size = Math.pow(10, r.nextDouble() * 4 - 3);
+            final Window window = new Window(p.getX() - size, p.getX() + size, p.getY() - size, p.getY() + size);
+            final int expected = pointsInRange.count(window);
+            for (final SpatialIndex index : indexes) {
+                Assertions.assertEquals(expected, index.count(window));
+                Assertions.assertEquals(expected, index.search(window).size());
+            }
+        }
+    }
+
+    @Test
+    public void testNearest() {
+        points = generate(3000);
+        final Random r = new Random(7);
+        for (int i = 0; i < 300; i++) {
+            points.add(new Point(r.nextInt(5), r.nextInt(5)));
+        }
+        rangeTree = new RangeTree(points);
+        gridRange = new GridRange(points, 20);
+
+        for (int i = 0; i < 300; i++) {
+            final Point query = new Point(r.nextDouble() * 50 - 25, r.nextDouble() * 50 - 25);
+            final int k = r.nextInt(40);
+            final double[] expected = points.stream()
+                    .mapToDouble(p -> Math.hypot(p.getX() - query.getX(), p.getY() - query.getY()))
+                    .sorted()
+                    .limit(k)
+                    .toArray();
+
+            for (final Neighbours neighbours : List.of(rangeTree.nearest(query, k), gridRange.nearest(query, k))) {
+                Assertions.assertEquals(expected.length, neighbours.size());
+                for (int j = 0; j < neighbours.size(); j++) {
+                    final Point p = neighbours.getPoint(j);
+                    Assertions.assertEquals(expected[j], neighbours.getDistance(j), 1e-9);
+                    Assertions.assertEquals(Math.hypot(p.getX() - query.getX(), p.getY() - query.getY()), neighbours.getDistance(j), 1e-9);
+                }
+            }
+        }
+
+        final Neighbours nearest = rangeTree.nearest(new Point(1.5, 1.5), 10);
+        for (int j = 0; j < nearest.size(); j++) {
+            Assertions.assertSame(points.get(nearest.getId(j)), nearest.getPoint(j));
+        }
+        Assertions.assertEquals(0, new RangeTree(new ArrayList<>()).nearest(new Point(0, 0), 3).size());
+        Assertions.assertEquals(3300, rangeTree.nearest(new Point(0, 0), 5000).size());
+
+        // k is clamped to the number of points, so a huge k does not allocate for k neighbours
+        final List<Point> few = generate(10);
+        Assertions.assertEquals(10, new RangeTree(few).nearest(new Point(0, 0), Integer.MAX_VALUE).size());
+        Assertions.assertEquals(10, new GridRange(few, 4).nearest(new Point(0, 0), Integer.MAX_VALUE).size());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> rangeTree.nearest(new Point(0, 0), -1));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> gridRange.nearest(new Point(0, 0), -1));
+    }
+
+    @Test
+    public void testSearchRadius() {
+        // integer points put many of them exactly on the circles with integer radius
+        points = generate(3000);
+        final Random r = new Random(8);
+        for (int i = 0; i < 1000; i++) {
+            points.add(new Point(r.nextInt(21) - 10, r.nextInt(21) - 10));
+        }
+        final List<SpatialIndex> indexes = List.of(new RangeTree(points), new FlatRangeTree(points), new GridRange(points, 20),
+                new PackedGridRange(points, 20), new SortedPointsInRange(points), new SemiRangeTree(points));
+
+        for (int i = 0; i < 500; i++) {
+            final Point center = i % 2 == 0 ? new Point(r.nextInt(21) - 10, r.nextInt(21) - 10)
+                    : new Point(r.nextDouble() * 44 - 22, r.nextDouble() * 44 - 22);
+            final double radius = i % 2 == 0 ? r.nextInt(12) : r.nextDouble() * 12;
+            final List<Point> expected = new ArrayList<>();
+            for (final Point p : points) {
+                final double dx = p.getX() - center.getX();
+                final double dy = p.getY() - center.getY();
+                if (dx * dx + dy * dy <= radius * radius) {
+                    expected.add(p);
+                }
+            }
+
+            for (final SpatialIndex index : indexes) {
+                final List<Point> found = index.searchRadius(center, radius);
+                Assertions.assertEquals(expected.size(), found.size());
+                Assertions.assertEquals(new HashSet<>(expected), new HashSet<>(found));
+            }
+        }
+    }
+
+    @Test
+    public void testSelfJoin() {
+        points = generate(3000);
+        final Random r = new Random(9);
+        for (int i = 0; i < 1000; i++) {
+            points.add(new Point(r.nextInt(21) - 10, r.nextInt(21) - 10));
+        }
+        final PointSet pointSet = PointSet.of(points);
+        final SortedPointsInRange sorted = new SortedPointsInRange(pointSet);
+        final List<PackedGridRange> grids = List.of(new PackedGridRange(pointSet, 1), new PackedGridRange(pointSet, 20),
+                new PackedGridRange(pointSet, 300));
+        final ForkJoinPool pool = new ForkJoinPool(4);
+
+        for (final double radius : new double[]{0, 0.3, 1, 2.5}) {
+            final Set<Long> expected = new HashSet<>();
+            for (int a = 0; a < points.size(); a++) {
+                for (int b = a + 1; b < points.size(); b++) {
+                    final double dx = points.get(a).getX() - points.get(b).getX();
+                    final double dy = points.get(a).getY() - points.get(b).getY();
+                    if (dx * dx + dy * dy <= radius * radius) {
+                        expected.add(pairKey(a, b));
+                    }
+                }
+            }
+
+            final List<Long> found = new ArrayList<>();
+            sorted.selfJoin(radius, (a, b) -> found.add(pairKey(a, b)));
+            assertPairs(expected, found);
+            for (final PackedGridRange grid : grids) {
+                found.clear();
+                grid.selfJoin(radius, (a, b) -> found.add(pairKey(a, b)));
+                assertPairs(expected, found);
+            }
+
+            final List<Long> parallel = Collections.synchronizedList(new ArrayList<>());
+            sorted.selfJoin(radius, (a, b) -> parallel.add(pairKey(a, b)), pool);
+            assertPairs(expected, parallel);
+            parallel.clear();
+            grids.get(2).selfJoin(radius, (a, b) -> parallel.add(pairKey(a, b)), pool);
+            assertPairs(expected, parallel);
+        }
+        pool.shutdown();
+    }
+
+    private static long pairKey(final int a, final int b) {
+        return (long) Math.min(a, b) << 32 | Math.max(a, b);
+    }
+
+    // every pair is reported exactly once
+    private static void assertPairs(final Set<Long> expected, final List<Long> found) {
+        Assertions.assertEquals(expected.size(), found.size());
+        Assertions.assertEquals(expected, new HashSet<>(found));
+    }
+
+    @Test
+    public void testWindowJoin() throws Exception {
+        points = generate(3000);
+        final Random r = new Random(10);
+        for (int i = 0; i < 500; i++) {
+            points.add(new Point(r.nextInt(21) - 10, r.nextInt(21) - 10));
+        }
+        final PointSet pointSet = PointSet.of(points);
+        final ForkJoinPool pool = new ForkJoinPool(4);
+
+        // fewer windows than points indexes the windows, more windows than points indexes the points
+        for (final int windowCount : new int[]{1, 40, 2000, 9000}) {
+            final List<Window> windows = new ArrayList<>();
+            for (int i = 0; i < windowCount; i++) {
+                final double x = r.nextInt(4) == 0 ? r.nextInt(21) - 10 : r.nextDouble() * 44 - 22;
+                final double y = r.nextInt(4) == 0 ? r.nextInt(21) - 10 : r.nextDouble() * 44 - 22;
+                final double size = i % 100 == 0 ? 30 : r.nextDouble() * 3;
+                windows.add(i % 500 == 1 ? new Window(x, x - 1, y, y) : new Window(x, x + size, y, y + size));
+            }
+
+            final Set<Long> expected = new HashSet<>();
+            for (int w = 0; w < windows.size(); w++) {
+                final Window window = windows.get(w);
+                for (int id = 0; id < points.size(); id++) {
+                    final Point p = points.get(id);
+                    if (window.getXMin() <= p.getX() && p.getX() <= window.getXMax()
+                            && window.getYMin() <= p.getY() && p.getY() <= window.getYMax()) {
+                        expected.add((long) w << 32 | id);
+                    }
+                }
+            }
+
+            final Map<Point, Integer> ids = new IdentityHashMap<>();
+            for (int id = 0; id < points.size(); id++) {
+                ids.put(points.get(id), id);
+            }
+            final List<Long> found = Collections.synchronizedList(new ArrayList<>());
+            WindowJoin.join(pointSet, windows, (w, p) -> found.add((long) w << 32 | ids.get(p)), pool);
+            assertPairs(expected, found);
+            found.clear();
+            WindowJoin.join(pointSet, windows, (w, p) -> found.add((long) w << 32 | ids.get(p)), null);
+            assertPairs(expected, found);
+            found.clear();
+            new RangeTree(points).join(windows, (w, p) -> found.add((long) w << 32 | ids.get(p)), pool);
+            assertPairs(expected, found);
+        }
+
+        // many tiny windows size the cells, the few windows over the whole extent are not listed in all of them
+        final List<Point> many = generate(120000);
+        final List<Window> mixed = new ArrayList<>();
+        for (int i = 0; i < 100000; i++) {
+            final double x = r.nextDouble() * 40 - 20;
+            final double y = r.nextDouble() * 40 - 20;
+            mixed.add(i % 2000 == 0 ? new Window(-20, 20, -20, 20) : new Window(x, x + 0.01, y, y + 0.01));
+        }
+        // without a pool the join stays on the calling thread, also when that is a worker of another pool, so the
+        // counts need no synchronization
+        final int[] counts = new int[mixed.size()];
+        final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+        pool.submit(() -> WindowJoin.join(PointSet.of(many), mixed, (w, p) -> {
+            threads.add(Thread.currentThread());
+            counts[w]++;
+        }, null)).get();
+        Assertions.assertEquals(1, threads.size());
+        rangeTree = new RangeTree(many);
+        for (int w = 0; w < mixed.size(); w++) {
+            Assertions.assertEquals(rangeTree.count(mixed.get(w)), counts[w]);
+        }
+        pool.shutdown();
+    }
+
+    @Test
+    public void testSnapshotIndex() throws Exception {
+        // index i holds the first (i + 1) * 100 points, so a count tells which index answered it
+        points = generate(2000);
+        final List<RangeTree> trees = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            trees.add(new RangeTree(points.subList(0, (i + 1) * 100)));
+        }
+        final Window everything = new Window(-20, 20, -20, 20);
+
+        final Set<RangeTree> releasedTrees = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        final SnapshotIndex<RangeTree> index = new SnapshotIndex<>(trees.get(0), tree -> Assertions.assertTrue(releasedTrees.add(tree)));
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final List<Thread> readers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final Thread reader = new Thread(() -> {
+                try {
+                    int last = 0;
+                    while (!done.get()) {
+                        try (SnapshotIndex.Snapshot<RangeTree> snapshot = index.acquire()) {
+                            Assertions.assertFalse(releasedTrees.contains(snapshot.index()));
+                            final int count = snapshot.index().count(everything);
+                            Assertions.assertEquals(trees.indexOf(snapshot.index()) * 100 + 100, count);
+                            Assertions.assertTrue(count >= last);
+                            last = count;
+                        }
+                        Assertions.assertEquals(0, index.count(everything) % 100);
+                    }
+                } catch (final Throwable e) {
+                    failure.set(e);
+                }
+            });
+            reader.start();
+            readers.add(reader);
+        }
+
+        for (int i = 1; i < trees.size(); i++) {
+            Thread.sleep(2);
+            index.publish(trees.get(i));
+        }
+        done.set(true);
+        for (final Thread reader : readers) {
+            reader.join();
+        }
+        Assertions.assertNull(failure.get());
+
+        // every retired tree was released exactly once, the current one stays available
+        Assertions.assertEquals(trees.size() - 1, index.releasedCount());
+        Assertions.assertEquals(new HashSet<>(trees.subList(0, trees.size() - 1)), releasedTrees);
+        Assertions.assertEquals(2000, index.count(everything));
+
+        final SnapshotIndex.Snapshot<RangeTree> held = index.acquire();
+        index.close();
+        Assertions.assertEquals(trees.size() - 1, index.releasedCount());
+        Assertions.assertEquals(2000, held.index().count(everything));
+        held.close();
+        Assertions.assertEquals(trees.size(), index.releasedCount());
+        Assertions.assertThrows(IllegalStateException.class, held::close);
+        Assertions.assertThrows(IllegalStateException.class, index::acquire);
+    }
+
+    @Test
+    public void testMappedRangeTree(@TempDir final Path directory) throws IOException {
+        points = generate(3000);
+        final Random r = new Random(11);
+        for (int i = 0; i < 1000; i++) {
+            points.add(new Point(r.nextInt(21) - 10, r.nextInt(21) - 10));
+        }
+        flatRangeTree = new FlatRangeTree(points);
+        final Path file = directory.resolve("tree.bin");
+        MappedRangeTree.write(flatRangeTree, file);
+
+        try (MappedRangeTree mapped = MappedRangeTree.open(file)) {
+            Assertions.assertEquals(points.size(), mapped.size());
+            for (int i = 0; i < 500; i++) {
+                final double x = r.nextDouble() * 44 - 22;
+                final double y = r.nextDouble() * 44 - 22;
+                final Window window = new Window(x, x + r.nextDouble() * 6, y, y + r.nextDouble() * 6);
+                final int[] expected = flatRangeTree.searchIds(window);
+                Assertions.assertArrayEquals(expected, mapped.searchIds(window));
+                Assertions.assertEquals(expected.length, mapped.count(window));
+                Assertions.assertEquals(new HashSet<>(flatRangeTree.search(window)), new HashSet<>(mapped.search(window)));
+            }
+        }
+
+        final Path empty = directory.resolve("empty.bin");
+        MappedRangeTree.write(new FlatRangeTree(new ArrayList<>()), empty);
+        try (MappedRangeTree mapped = MappedRangeTree.open(empty)) {
+            Assertions.assertEquals(0, mapped.count(new Window(-1, 1, -1, 1)));
+        }
+
+        // a closed tree refuses queries, files of another version or with missing data are rejected
+        final MappedRangeTree closed = MappedRangeTree.open(file);
+        closed.close();
+        Assertions.assertThrows(IllegalStateException.class, () -> closed.count(new Window(-1, 1, -1, 1)));
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(0, MappedRangeTree.VERSION + 1), 4);
+        }
+        Assertions.assertThrows(IllegalArgumentException.class, () -> MappedRangeTree.open(file));
+
+        MappedRangeTree.write(flatRangeTree, file);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 4);
+        }
+        Assertions.assertThrows(IllegalArgumentException.class, () -> MappedRangeTree.open(file));
+
+        Files.write(file, new byte[8]);
+        Assertions.assertThrows(IllegalArgumentException.class, () -> MappedRangeTree.open(file));
+    }
+
+    @Test
+    public void testOffHeapGridRange() {
+        points = generate(3000);
+        final Random r = new Random(12);
+        for (int i = 0; i < 1000; i++) {
+            points.add(new Point(r.nextInt(21) - 10, r.nextInt(21) - 10));
+        }
+        final PointSet pointSet = PointSet.of(points);
+        pointsInRange = new PointsInRange(pointSet);
+
+        for (final OffHeapGridRange grid : List.of(new OffHeapGridRange(pointSet, 1), new OffHeapGridRange(pointSet, 25),
+                OffHeapGridRange.adaptive(pointSet, 2))) {
+            try (grid) {
+                Assertions.assertEquals(points.size(), grid.size());
+                for (int i = 0; i < 500; i++) {
+                    final double x = r.nextDouble() * 44 - 22;
+                    final double y = r.nextDouble() * 44 - 22;
+                    final Window window = new Window(x, x + r.nextDouble() * 8, y, y + r.nextDouble() * 8);
+                    final int[] expected = pointsInRange.searchIds(window);
+                    final int[] found = grid.searchIds(window);
+                    Arrays.sort(found);
+                    Assertions.assertArrayEquals(expected, found);
+                    Assertions.assertEquals(expected.length, grid.count(window));
+                    Assertions.assertEquals(new HashSet<>(pointsInRange.search(window)), new HashSet<>(grid.search(window)));
+
+                    final List<Integer> streamed = new ArrayList<>();
+                    grid.searchIds(window, streamed::add);
+                    Assertions.assertEquals(expected.length, streamed.size());
+                }
+            }
+            Assertions.assertThrows(IllegalStateException.class, () -> grid.count(new Window(-1, 1, -1, 1)));
+        }
+
+        try (OffHeapGridRange empty = new OffHeapGridRange(PointSet.of(new ArrayList<>()), 4)) {
+            Assertions.assertEquals(0, empty.count(new Window(-1, 1, -1, 1)));
+        }
+    }
+
+    @Test
+    public void testPlannedIndex() {
+        points = generate(3000);
+        final Random r = new Random(13);
+        for (int i = 0; i < 1000; i++) {
+            points.add(new Point(r.nextInt(21) - 10, r.nextInt(21) - 10));
+        }
+        final PointSet pointSet = PointSet.of(points);
+        pointsInRange = new PointsInRange(pointSet);
+
+        final PlannedIndex planned = new PlannedIndex(pointSet);
+        Assertions.assertEquals(EnumSet.allOf(PlannedIndex.Engine.class), planned.engines());
+        Assertions.assertEquals(points.size(), planned.estimateCount(new Window(-1e9, 1e9, -1e9, 1e9)), 1e-6);
+
+        final int queries = 1000;
+        for (int i = 0; i < queries; i++) {
+            final double x = r.nextDouble() * 44 - 22;
+            final double y = r.nextDouble() * 44 - 22;
+            final double extent = i % 2 == 0 ? r.nextDouble() * 2 : r.nextDouble() * 40;
+            final Window window = new Window(x, x + extent, y, y + r.nextDouble() * extent);
+            final int[] expected = pointsInRange.searchIds(window);
+            final int[] found = planned.searchIds(window);
+            Arrays.sort(found);
+            Assertions.assertArrayEquals(expected, found);
+            Assertions.assertEquals(expected.length, planned.count(window));
+            Assertions.assertEquals(new HashSet<>(pointsInRange.search(window)), new HashSet<>(planned.search(window)));
+        }
+
+        // every query is counted once, and windows this different do not all go to the same engine
+        long routed = 0;
+        int used = 0;
+        for (final PlannedIndex.Engine engine : PlannedIndex.Engine.values()) {
+            routed += planned.routedCount(engine);
+            used += planned.routedCount(engine) > 0 ? 1 : 0;
+        }
+        Assertions.assertEquals(3L * queries, routed);
+        Assertions.assertTrue(used > 1);
+
+        // asking for a plan does not count as routing a query
+        for (int i = 0; i < 100; i++) {
+            planned.plan(new Window(-i, i, -i, i));
+        }
+        long replanned = 0;
+        for (final PlannedIndex.Engine engine : PlannedIndex.Engine.values()) {
+            replanned += planned.routedCount(engine);
+        }
+        Assertions.assertEquals(routed, replanned);
+
+        final int size = points.size();
+        final long sortedBytes = PlannedIndex.estimateBytes(PlannedIndex.Engine.SORTED_SCAN, size);
+        final long gridBytes = PlannedIndex.estimateBytes(PlannedIndex.Engine.GRID, size);
+        Assertions.assertEquals(EnumSet.of(PlannedIndex.Engine.SORTED_SCAN), new PlannedIndex(pointSet, 0).engines());
+        final PlannedIndex budgeted = new PlannedIndex(pointSet, sortedBytes + gridBytes);
+        Assertions.assertEquals(EnumSet.of(PlannedIndex.Engine.SORTED_SCAN, PlannedIndex.Engine.GRID), budgeted.engines());
+        final Window window = new Window(-5, 5, -5, 5);
+        Assertions.assertArrayEquals(pointsInRange.searchIds(window), Arrays.stream(budgeted.searchIds(window)).sorted().toArray());
+        Assertions.assertEquals(0, budgeted.routedCount(PlannedIndex.Engine.RANGE_TREE));
+    }
+
+    @Test
+    public void testMetrics() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (long nanos = 1; nanos <= 10000; nanos++) {
+            histogram.record(nanos);
+        }
+        histogram.record(-5);
+        final LatencyHistogram.Snapshot latency = histogram.snapshot();
+        Assertions.assertEquals(10001, latency.count());
+        Assertions.assertEquals(0, latency.percentile(0));
+        Assertions.assertTrue(latency.percentile(0.5) >= 5000 && latency.percentile(0.5) <= 5000 * 17 / 16);
+        Assertions.assertTrue(latency.percentile(0.99) >= 9900 && latency.percentile(0.99) <= 9900 * 17 / 16);
+        Assertions.assertTrue(latency.max() >= 10000 && latency.max() <= 10000 * 17 / 16);
+        histogram.record(Long.MAX_VALUE);
+        Assertions.assertEquals(Long.MAX_VALUE, histogram.snapshot().max());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> latency.percentile(1.5));
+
+        final OperationMetrics operation = new OperationMetrics("test");
+        operation.record(100, 7, 3, 0, 40, 10);
+        operation.record(300, 5, 2, 0, 60, 40);
+        final OperationMetrics.Snapshot snapshot = operation.snapshot();
+        Assertions.assertEquals(2, snapshot.calls());
+        Assertions.assertEquals(12, snapshot.nodesVisited());
+        Assertions.assertEquals(5, snapshot.subtreesReported());
+        Assertions.assertEquals(0.5, snapshot.wastedWorkRatio(), 1e-12);
+        operation.reset();
+        Assertions.assertEquals(0, operation.snapshot().calls());
+        Assertions.assertEquals(0, operation.snapshot().latency().count());
+
+        // the indexes only record when the JVM runs with -Drangetree.metrics=true
+        Metrics.reset();
+        points = generate(2000);
+        rangeTree = new RangeTree(points);
+        gridRange = new GridRange(points, 20);
+        pointsInRange = new PointsInRange(points);
+        long returned = 0;
+        for (int i = 0; i < 100; i++) {
+            final Point p = points.get(i);
+            final Window window = new Window(p.getX() - 2, p.getX() + 2, p.getY() - 2, p.getY() + 2);
+            returned += pointsInRange.search(window).size();
+            rangeTree.search(window, point -> { });
+            gridRange.search(window, point -> { });
+            rangeTree.count(window);
+            rangeTree.searchRadius(p, 2, point -> { });
+            rangeTree.nearest(p, 5);
+        }
+
+        final OperationMetrics.Snapshot treeSearch = Metrics.RANGE_TREE_SEARCH.snapshot();
+        final OperationMetrics.Snapshot gridSearch = Metrics.GRID_RANGE_SEARCH.snapshot();
+        if (Metrics.ENABLED) {
+            Assertions.assertEquals(1, Metrics.RANGE_TREE_BUILD.snapshot().calls());
+            Assertions.assertEquals(points.size(), Metrics.GRID_RANGE_BUILD.snapshot().pointsReturned());
+            Assertions.assertEquals(100, treeSearch.calls());
+            Assertions.assertEquals(returned, treeSearch.pointsReturned());
+            Assertions.assertTrue(treeSearch.pointsScanned() > returned && treeSearch.pointsScanned() <= returned + treeSearch.subtreesReported());
+            Assertions.assertTrue(treeSearch.nodesVisited() >= treeSearch.subtreesReported());
+            Assertions.assertEquals(treeSearch.subtreesReported(), Metrics.RANGE_TREE_COUNT.snapshot().subtreesReported());
+            final OperationMetrics.Snapshot radius = Metrics.RANGE_TREE_RADIUS.snapshot();
+            Assertions.assertEquals(100, radius.calls());
+            Assertions.assertTrue(radius.pointsReturned() >= 100 && radius.pointsScanned() >= radius.pointsReturned());
+            final OperationMetrics.Snapshot nearest = Metrics.RANGE_TREE_NEAREST.snapshot();
+            Assertions.assertEquals(500, nearest.pointsReturned());
+            Assertions.assertTrue(nearest.pointsScanned() >= 500 && nearest.nodesVisited() >= nearest.subtreesReported());
+            Assertions.assertEquals(100, gridSearch.latency().count());
+            Assertions.assertEquals(returned, gridSearch.pointsReturned());
+            Assertions.assertTrue(gridSearch.pointsScanned() > returned && gridSearch.cellsTouched() >= 100);
+        } else {
+            for (final OperationMetrics.Snapshot metrics : Metrics.snapshot()) {
+                Assertions.assertEquals(0, metrics.calls());
+            }
+        }
+    }
+
+    @Test
+    public void testCachedIndex() throws Exception {
+        points = generate(3000);
+        final Random r = new Random(14);
+        for (int i = 0; i < 500; i++) {
+            points.add(new Point(r.nextInt(21) - 10, r.nextInt(21) - 10));
+        }
+        pointsInRange = new PointsInRange(points);
+        final int[] searches = new int[1];
+        final SpatialIndex counting = (window, consumer) -> {
+            searches[0]++;
+            pointsInRange.search(window, consumer);
+        };
+
+        // quantized windows are widened and filtered back, nearly equal windows share an entry
+        final CachedIndex cache = new CachedIndex(counting, 0.5, 10000, Long.MAX_VALUE);
+        for (int i = 0; i < 2000; i++) {
+            final double x = r.nextInt(40) - 20 + r.nextDouble() * 0.01;
+            final double y = r.nextInt(40) - 20 + r.nextDouble() * 0.01;
+            final Window window = new Window(x, x + 2 + r.nextDouble() * 0.01, y, y + 1.5);
+            final List<Point> expected = pointsInRange.search(window);
+            final List<Point> found = cache.search(window);
+            Assertions.assertEquals(expected.size(), found.size());
+            Assertions.assertEquals(new HashSet<>(expected), new HashSet<>(found));
+            Assertions.assertEquals(expected.size(), cache.count(window));
+        }
+        Assertions.assertEquals(4000, cache.hits() + cache.misses());
+        Assertions.assertEquals(cache.misses(), searches[0]);
+        Assertions.assertTrue(cache.hitRate() > 0.5);
+        Assertions.assertEquals(cache.misses(), cache.size());
+
+        // exact windows, least recently used first out
+        final CachedIndex lru = new CachedIndex(counting, 0, 2, Long.MAX_VALUE);
+        final Window a = new Window(-5, 0, -5, 0);
+        final Window b = new Window(0, 5, 0, 5);
+        final Window c = new Window(-5, 0, 0, 5);
+        lru.count(a);
+        lru.count(b);
+        lru.count(a);
+        lru.count(c);
+        Assertions.assertEquals(1, lru.evictions());
+        Assertions.assertEquals(2, lru.size());
+        final long misses = lru.misses();
+        lru.count(a);
+        Assertions.assertEquals(misses, lru.misses());
+        lru.count(b);
+        Assertions.assertEquals(misses + 1, lru.misses());
+        Assertions.assertEquals(2, lru.hits());
+        lru.invalidate();
+        Assertions.assertEquals(0, lru.size());
+        Assertions.assertEquals(0, lru.bytes());
+
+        // a result larger than the byte budget is served but not cached
+        final CachedIndex small = new CachedIndex(counting, 0, 100, 1024);
+        final Window everything = new Window(-30, 30, -30, 30);
+        Assertions.assertEquals(points.size(), small.count(everything));
+        Assertions.assertEquals(0, small.size());
+        small.count(new Window(0.1, 0.6, 0.1, 0.6));
+        Assertions.assertTrue(small.bytes() > 0 && small.bytes() <= 1024);
+
+        // publishing a new index invalidates the entries of the old one
+        final List<Point> half = new ArrayList<>(points.subList(0, points.size() / 2));
+        try (SnapshotIndex<RangeTree> snapshots = new SnapshotIndex<>(new RangeTree(points))) {
+            final CachedIndex snapshotCache = new CachedIndex(snapshots, 1, 100, Long.MAX_VALUE);
+            Assertions.assertEquals(pointsInRange.count(everything), snapshotCache.count(everything));
+            Assertions.assertEquals(points.size(), snapshotCache.count(everything));
+            Assertions.assertEquals(1, snapshotCache.hits());
+            snapshots.publish(new RangeTree(half));
+            Assertions.assertEquals(half.size(), snapshotCache.count(everything));
+            Assertions.assertEquals(2, snapshotCache.misses());
+            Assertions.assertEquals(1, snapshotCache.size());
+        }
+
+        // concurrent readers over a shared cache
+        final CachedIndex shared = new CachedIndex(new RangeTree(points), 1, 64, Long.MAX_VALUE);
+        final List<Window> windows = new ArrayList<>();
+        for (int i = 0; i < 256; i++) {
+            final double x = r.nextDouble() * 40 - 20;
+            final double y = r.nextDouble() * 40 - 20;
+            windows.add(new Window(x, x + r.nextDouble() * 4, y, y + r.nextDouble() * 4));
+        }
+        final List<Integer> expectedCounts = new ArrayList<>();
+        for (final Window window : windows) {
+            expectedCounts.add(pointsInRange.count(window));
+        }
+        final AtomicBoolean failed = new AtomicBoolean();
+        final List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final int seed = t;
+            threads.add(new Thread(() -> {
+                final Random random = new Random(seed);
+                for (int i = 0; i < 5000; i++) {
+                    final int w = random.nextInt(windows.size());
+                    if (shared.count(windows.get(w)) != expectedCounts.get(w)) {
+                        failed.set(true);
+                    }
+                }
+            }));
+        }
+        for (final Thread thread : threads) {
+            thread.start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        Assertions.assertFalse(failed.get());
+        Assertions.assertEquals(20000, shared.hits() + shared.misses());
+        Assertions.assertTrue(shared.size() <= 64);
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new CachedIndex(counting, -1, 10, 10));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new CachedIndex(counting, 1, 0, 10));
+    }
+
+    @Test
+    public void testLayeredRangeTree() {
+        final Random r = new Random(17);
+        for (int dimensions = 2; dimensions <= 4; dimensions++) {
+            // half the points on an integer lattice, so coordinates repeat in every dimension
+            final int size = 3000;
+            final double[][] coordinates = new double[dimensions][size];
+            for (int i = 0; i < size; i++) {
+                for (int dimension = 0; dimension < dimensions; dimension++) {
+                    coordinates[dimension][i] = i % 2 == 0 ? r.nextDouble() * 20 - 10 : r.nextInt(11) - 5;
+                }
+            }
+            final MultiPointSet pointSet = new MultiPointSet(coordinates);
+            final LayeredRangeTree tree = new LayeredRangeTree(pointSet);
+            final SortedMultiPointsInRange sorted = new SortedMultiPointsInRange(pointSet);
+            Assertions.assertEquals(size, tree.size());
+            Assertions.assertEquals(dimensions, tree.dimensions());
+
+            for (int query = 0; query < 500; query++) {
+                final double[] min = new double[dimensions];
+                final double[] max = new double[dimensions];
+                for (int dimension = 0; dimension < dimensions; dimension++) {
+                    final double extent = query % 3 == 0 ? r.nextInt(4) : r.nextDouble() * 16;
+                    min[dimension] = query % 3 == 0 ? r.nextInt(13) - 6 : r.nextDouble() * 24 - 12;
+                    max[dimension] = min[dimension] + extent;
+                }
+                final Box box = new Box(min, max);
+
+                final List<Integer> expected = new ArrayList<>();
+                for (int id = 0; id < size; id++) {
+                    if (box.contains(pointSet.point(id))) {
+                        expected.add(id);
+                    }
+                }
+                final List<Integer> found = new ArrayList<>();
+                tree.searchIds(box, found::add);
+                Collections.sort(found);
+                Assertions.assertEquals(expected, found);
+                Assertions.assertEquals(expected.size(), tree.count(box));
+
+                final List<Integer> scanned = new ArrayList<>();
+                sorted.searchIds(box, scanned::add);
+                Collections.sort(scanned);
+                Assertions.assertEquals(expected, scanned);
+                Assertions.assertEquals(expected.size(), sorted.count(box));
+            }
+
+            // an empty box, and a box around everything
+            final double[] everywhere = new double[dimensions];
+            Arrays.fill(everywhere, 1e9);
+            final double[] nowhere = new double[dimensions];
+            Arrays.fill(nowhere, -1e9);
+            Assertions.assertEquals(0, tree.count(new Box(everywhere, nowhere)));
+            Assertions.assertEquals(size, tree.count(new Box(nowhere, everywhere)));
+        }
+
+        final LayeredRangeTree small = new LayeredRangeTree(new MultiPointSet(new double[]{1, 2}, new double[]{3, 4}, new double[]{5, 6}));
+        Assertions.assertEquals(1, small.count(new Box(new double[]{0, 0, 0}, new double[]{1.5, 3, 5})));
+        Assertions.assertEquals(0, new LayeredRangeTree(new MultiPointSet(new double[0], new double[0], new double[0]))
+                .count(new Box(new double[]{0, 0, 0}, new double[]{1, 1, 1})));
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new LayeredRangeTree(new MultiPointSet(new double[]{1})));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new MultiPointSet(new double[]{1, 2}, new double[]{1}));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new Box(new double[]{0, 0}, new double[]{1}));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> small.count(new Box(new double[]{0, 0}, new double[]{1, 1})));
+    }
+
     @Test
     public void benchmark() throws Exception {
         String[] argv = {};
@@ -0,0 +1,95 @@
+package com.satanja.performancetest;
+
+import com.satanja.grid.GridRange;
+import com.satanja.naive.SortedPointsInRange;
+import com.satanja.rangetree.Point;
+import com.satanja.rangetree.RangeTree;
+import com.satanja.rangetree.SpatialIndex;
+import com.satanja.rangetree.Window;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@State(Scope.Benchmark)
+public class RadiusBenchmark {
+
+    private RangeTree rangeTree;
+    private GridRange gridRange;
+    private SortedPointsInRange sortedPointsInRange;
+
+    private List<Point> points;
+
+    @Param({"10000", "100000"})
+    public int input_size;
+
+    @Param({"1", "5"})
+    public double radius;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        points = PerformanceTest.generate(input_size);
+        rangeTree = new RangeTree(points);
+        gridRange = GridRange.adaptive(points, 2 * radius);
+        sortedPointsInRange = new SortedPointsInRange(points);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void benchmarkRangeTreeRadius(final Blackhole blackhole) {
+        for (final Point p : points) {
+            rangeTree.searchRadius(p, radius, blackhole::consume);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void benchmarkRangeTreeFilteredSquare(final Blackhole blackhole) {
+        for (final Point p : points) {
+            filteredSquare(rangeTree, p, blackhole);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void benchmarkGridRangeRadius(final Blackhole blackhole) {
+        for (final Point p : points) {
+            gridRange.searchRadius(p, radius, blackhole::consume);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void benchmarkGridRangeFilteredSquare(final Blackhole blackhole) {
+        for (final Point p : points) {
+            filteredSquare(gridRange, p, blackhole);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void benchmarkSortedPointsInRangeRadius(final Blackhole blackhole) {
+        for (final Point p : points) {
+            sortedPointsInRange.searchRadius(p, radius, blackhole::consume);
+        }
+    }
+
+    // the caller-side workaround: search the bounding square into a list and filter it
+    private void filteredSquare(final SpatialIndex index, final Point center, final Blackhole blackhole) {
+        final Window square = new Window(center.getX() - radius, center.getX() + radius, center.getY() - radius, center.getY() + radius);
+        for (final Point point : index.search(square)) {
+            if (Math.hypot(point.getX() - center.getX(), point.getY() - center.getY()) <= radius) {
+                blackhole.consume(point);
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.satanja.performancetest;
+
+import com.satanja.rangetree.Point;
+import com.satanja.rangetree.RangeTree;
+import com.satanja.rangetree.SnapshotIndex;
+import com.satanja.rangetree.Window;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/*
+ * Read throughput of three reader threads while a fourth thread keeps rebuilding the range tree. The snapshot groups
+ * publish the rebuilt tree through a SnapshotIndex, the locked group rebuilds under the write lock of a read-write
+ * lock, which is what a caller without snapshots has to do to keep readers from seeing a half-built tree.
+ */
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@State(Scope.Group)
+public class SnapshotBenchmark {
+
+    private List<Point> points;
+    private SnapshotIndex<RangeTree> snapshotIndex;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private RangeTree lockedTree;
+
+    @Param({"10000", "100000"})
+    public int input_size;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        points = PerformanceTest.generate(input_size);
+        snapshotIndex = new SnapshotIndex<>(new RangeTree(points));
+        lockedTree = new RangeTree(points);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        snapshotIndex.close();
+    }
+
+    @State(Scope.Thread)
+    public static class Reader {
+        private final Random random = new Random(Thread.currentThread().threadId());
+
+        Window next() {
+            final double x = random.nextDouble() * 40 - 20;
+            final double y = random.nextDouble() * 40 - 20;
+            return new Window(x - 1, x + 1, y - 1, y + 1);
+        }
+    }
+
+    @Benchmark
+    @Group("snapshotIdle")
+    @GroupThreads(3)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int snapshotIdleRead(final Reader reader) {
+        return snapshotIndex.count(reader.next());
+    }
+
+    @Benchmark
+    @Group("snapshotRebuild")
+    @GroupThreads(3)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int snapshotRead(final Reader reader) {
+        return snapshotIndex.count(reader.next());
+    }
+
+    @Benchmark
+    @Group("snapshotRebuild")
+    @GroupThreads(1)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void snapshotRebuild() {
+        snapshotIndex.publish(new RangeTree(points));
+    }
+
+    @Benchmark
+    @Group("lockedRebuild")
+    @GroupThreads(3)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int lockedRead(final Reader reader) {
+        lock.readLock().lock();
+        try {
+            return lockedTree.count(reader.next());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Benchmark
+    @Group("lockedRebuild")
+    @GroupThreads(1)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void lockedRebuild() {
+        lock.writeLock().lock();
+        try {
+            lockedTree = new RangeTree(points);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
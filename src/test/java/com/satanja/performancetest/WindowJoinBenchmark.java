@@ -0,0 +1,64 @@
+package com.satanja.performancetest;
+
+import com.satanja.grid.WindowJoin;
+import com.satanja.rangetree.Point;
+import com.satanja.rangetree.PointSet;
+import com.satanja.rangetree.RangeTree;
+import com.satanja.rangetree.Window;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@State(Scope.Benchmark)
+public class WindowJoinBenchmark {
+
+    private List<Point> points;
+    private PointSet pointSet;
+    private List<Window> windows;
+
+    @Param({"100000", "1000000"})
+    public int point_count;
+
+    @Param({"100000", "1000000"})
+    public int window_count;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        points = PerformanceTest.generate(point_count);
+        pointSet = PointSet.of(points);
+
+        final Random r = new Random(1);
+        windows = new ArrayList<>(window_count);
+        for (int i = 0; i < window_count; i++) {
+            final double x = r.nextDouble() * 40 - 20;
+            final double y = r.nextDouble() * 40 - 20;
+            windows.add(new Window(x - 0.1, x + 0.1, y - 0.1, y + 0.1));
+        }
+    }
+
+    // what callers do today: build a range tree over the points and search every window
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void benchmarkRangeTreeLoop(final Blackhole blackhole) {
+        final RangeTree rangeTree = new RangeTree(points);
+        for (int w = 0; w < windows.size(); w++) {
+            final int windowIndex = w;
+            rangeTree.search(windows.get(w), point -> blackhole.consume(windowIndex));
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void benchmarkWindowJoin(final Blackhole blackhole) {
+        WindowJoin.join(pointSet, windows, (windowIndex, point) -> blackhole.consume(windowIndex));
+    }
+}